@@ -8,6 +8,9 @@ import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaTrack;
 import com.google.android.gms.cast.TextTrackStyle;
 
+import org.json.JSONException;
+import org.xmlpull.v1.XmlPullParserException;
+
 import android.annotation.TargetApi;
 import android.app.AlertDialog;
 import android.app.Dialog;
@@ -22,9 +25,11 @@ import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.media.RemoteControlClient;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.support.v4.app.DialogFragment;
@@ -43,6 +48,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.accessibility.CaptioningManager;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -51,7 +58,9 @@ import android.widget.ImageView;
 import android.widget.SeekBar;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
@@ -60,7 +69,7 @@ import java.util.concurrent.TimeUnit;
  * Base class for DemoCastPlayer activities.
  */
 abstract class BaseCastPlayerActivity extends ActionBarActivity
-        implements OnSharedPreferenceChangeListener {
+        implements OnSharedPreferenceChangeListener, DiscoveryScheduler.Provider {
     private static final String TAG = "BaseCastPlayerActivity";
 
     private TextView mMediaTitle;
@@ -99,14 +108,24 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
     protected MediaRouter mMediaRouter;
     private MediaRouteSelector mMediaRouteSelector;
     private MediaRouter.Callback mMediaRouterCallback;
+    private DiscoveryScheduler mDiscoveryScheduler;
     protected Handler mHandler;
     private Uri mCurrentImageUrl;
+    /** Art to load once the image view has been laid out and has a size. */
+    private Uri mDeferredImageUrl;
+    private boolean mMediaArtLayoutPending;
+    private Bitmap mMediaArtBitmap;
+    private Uri mStoppedImageUrl;
     private FetchBitmapTask mFetchBitmapTask;
+    private BitmapCache mBitmapCache;
     private boolean mIsUserSeeking;
     private boolean mIsUserAdjustingVolume;
     private MediaSelectionDialog mMediaSelectionDialog;
     private DialogFragment mTrackSelectionDialog;
     private Runnable mRefreshRunnable;
+    private final PlaybackClock mPlaybackClock = new PlaybackClock();
+    private Runnable mPlaybackClockRunnable;
+    private long mDisplayedPositionSeconds = -1;
     private int mPlayerState;
     private boolean mRelaunchApp;
     private boolean mStopAppWhenEndingSession;
@@ -132,6 +151,7 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
     private static final String MEDIA_SELECTION_DIALOG_TAG = "media_selection";
     private static final String MEDIA_TRACK_SELECTION_DIALOG_TAG = "media_track_selection";
     private static final int REFRESH_INTERVAL_MS = (int) TimeUnit.SECONDS.toMillis(1);
+    private static final int FRAME_INTERVAL_MS = 16;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -186,9 +206,11 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         mStreamMuteCheckBox = (CheckBox) findViewById(R.id.stream_mute_checkbox);
 
         mHandler = new Handler();
+        mBitmapCache = BitmapCache.getInstance(this);
 
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
         mMediaRouterCallback = new MyMediaRouterCallback();
+        mDiscoveryScheduler = new DiscoveryScheduler(mMediaRouter);
 
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         sharedPreferences.registerOnSharedPreferenceChangeListener(this);
@@ -212,6 +234,15 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
             }
         };
 
+        // Moves the stream position controls along with the playback clock, once per frame.
+        mPlaybackClockRunnable = new Runnable() {
+            @Override
+            public void run() {
+                showStreamPosition(mPlaybackClock.getPosition());
+                schedulePlaybackClockTick();
+            }
+        };
+
         // TODO: Add RemoteControlClient support.
         /*
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
@@ -256,6 +287,17 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         super.onStart();
 
         startDiscovery();
+        if ((mStoppedImageUrl != null) && (mCurrentImageUrl == null)) {
+            // Usually still in the memory cache.
+            loadMediaArt(mStoppedImageUrl);
+        }
+        mStoppedImageUrl = null;
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        schedulePlaybackClockTick();
     }
 
     @Override
@@ -269,9 +311,14 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
     @Override
     protected void onStop() {
         stopDiscovery();
-        if (mFetchBitmapTask != null) {
-            mFetchBitmapTask.cancel(true);
-        }
+        TaskExecutor.getInstance().cancelAll(this);
+        mFetchBitmapTask = null;
+        // Let the art bitmap be pooled while we are not visible; it is reloaded in onStart().
+        mStoppedImageUrl = mCurrentImageUrl;
+        mCurrentImageUrl = null;
+        showMediaArt(null);
+        Log.d(TAG, "onStop: " + mBitmapCache + " " + TaskExecutor.getInstance() + " "
+                + mDiscoveryScheduler);
         super.onStop();
     }
 
@@ -288,6 +335,13 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         super.onDestroy();
     }
 
+    @Override
+    public void onLowMemory() {
+        Log.d(TAG, "onLowMemory: " + mBitmapCache);
+        mBitmapCache.trimMemory();
+        super.onLowMemory();
+    }
+
     @Override
     public void onBackPressed() {
         // If a route is selected, deselect it.
@@ -306,6 +360,7 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         MediaRouteActionProvider mediaRouteActionProvider =
                 (MediaRouteActionProvider) MenuItemCompat.getActionProvider(mediaRouteMenuItem);
         mediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        mediaRouteActionProvider.setDialogFactory(new DiscoveryScheduler.DialogFactory());
         return true;
     }
 
@@ -327,10 +382,70 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         } else if (id == R.id.action_locale_settings) {
             startActivity(new Intent(Settings.ACTION_LOCALE_SETTINGS));
             return true;
+        } else if (id == R.id.action_benchmark_catalog) {
+            runCatalogBenchmark();
+            return true;
+        } else if (id == R.id.action_benchmark_queue) {
+            runQueueBenchmark();
+            return true;
+        } else if (id == R.id.action_media_operation_stats) {
+            startActivity(new Intent(this, MediaOperationStatsActivity.class));
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void runCatalogBenchmark() {
+        AsyncTask<Void, Void, String> task = new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                try {
+                    return CatalogBenchmark.run(getApplicationContext(),
+                            CatalogBenchmark.DEFAULT_ENTRIES);
+                } catch (IOException e) {
+                    Log.w(TAG, "Catalog benchmark failed", e);
+                } catch (XmlPullParserException e) {
+                    Log.w(TAG, "Catalog benchmark failed", e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(String result) {
+                Toast.makeText(getApplicationContext(),
+                        (result != null) ? result : "Catalog benchmark failed",
+                        Toast.LENGTH_LONG).show();
+            }
+        };
+        TaskExecutor.getInstance().execute(task, TaskExecutor.Lane.PREFETCH, this);
+    }
+
+    private void runQueueBenchmark() {
+        AsyncTask<Void, Void, String> task = new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                try {
+                    return QueueBenchmark.run(QueueBenchmark.DEFAULT_OPERATIONS);
+                } catch (IOException e) {
+                    Log.w(TAG, "Queue benchmark failed", e);
+                } catch (XmlPullParserException e) {
+                    Log.w(TAG, "Queue benchmark failed", e);
+                } catch (JSONException e) {
+                    Log.w(TAG, "Queue benchmark failed", e);
+                }
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(String result) {
+                Toast.makeText(getApplicationContext(),
+                        (result != null) ? result : "Queue benchmark failed",
+                        Toast.LENGTH_LONG).show();
+            }
+        };
+        TaskExecutor.getInstance().execute(task, TaskExecutor.Lane.PREFETCH, this);
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
@@ -343,17 +458,27 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         return true;
     }
 
+    /**
+     * Registers for route events, and leaves it to the {@link DiscoveryScheduler} to decide when
+     * to look for routes.
+     */
     private void startDiscovery() {
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-            MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, 0);
+        mDiscoveryScheduler.start(mMediaRouteSelector);
         mDiscoveryActive = true;
     }
 
     private void stopDiscovery() {
+        mDiscoveryScheduler.stop();
         mMediaRouter.removeCallback(mMediaRouterCallback);
         mDiscoveryActive = false;
     }
 
+    @Override
+    public DiscoveryScheduler getDiscoveryScheduler() {
+        return mDiscoveryScheduler;
+    }
+
     private void buildRouteSelector() {
         mMediaRouteSelector = new MediaRouteSelector.Builder()
                 .addControlCategory(getControlCategory())
@@ -498,14 +623,19 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
             }
         });
 
-        // Seek bar's range is in seconds, to prevent possibility of user seeking to fractions of
-        // seconds.
+        // Seek bar's range is in milliseconds, so it moves smoothly with the playback clock, but
+        // seeks are rounded to whole seconds, to prevent possibility of user seeking to fractions
+        // of seconds.
         mSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
                 mIsUserSeeking = false;
                 mSeekBar.setSecondaryProgress(0);
-                onSeekBarMoved(TimeUnit.SECONDS.toMillis(seekBar.getProgress()));
+                long position = TimeUnit.SECONDS.toMillis(
+                        Math.round(seekBar.getProgress() / 1000.0));
+                mPlaybackClock.seekTo(position);
+                showStreamPosition(position);
+                onSeekBarMoved(position);
             }
 
             @Override
@@ -655,17 +785,45 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
 
         mMediaTitle.setText(title);
         mMediaArtist.setText(subtitle);
+        loadMediaArt(imageUrl);
+    }
 
+    private void loadMediaArt(Uri imageUrl) {
         if ((imageUrl != null) && !imageUrl.equals(mCurrentImageUrl)) {
             if (mFetchBitmapTask != null) {
-                mFetchBitmapTask.cancel(true);
+                // Don't interrupt; the fetch may be shared and will still fill the cache.
+                mFetchBitmapTask.cancel(false);
+                mFetchBitmapTask = null;
             }
 
-            final FetchBitmapTask fetchBitmapTask = new FetchBitmapTask() {
+            // Decode no larger than the view. Before its first layout it has no size, so wait
+            // for one rather than decode at full size; if no layout is coming, use the size the
+            // layout file gives it, if any.
+            int width = mMediaArtImageView.getWidth();
+            int height = mMediaArtImageView.getHeight();
+            if ((width == 0) || (height == 0)) {
+                if (mMediaArtImageView.isLayoutRequested()) {
+                    deferMediaArt(imageUrl);
+                    return;
+                }
+                ViewGroup.LayoutParams params = mMediaArtImageView.getLayoutParams();
+                width = (params != null) ? Math.max(0, params.width) : 0;
+                height = (params != null) ? Math.max(0, params.height) : 0;
+            }
+            mDeferredImageUrl = null;
+            Bitmap cached = mBitmapCache.getIfCached(imageUrl, width, height);
+            if (cached != null) {
+                showMediaArt(cached);
+                mCurrentImageUrl = imageUrl;
+                return;
+            }
+
+            final FetchBitmapTask fetchBitmapTask = new FetchBitmapTask(mBitmapCache, width,
+                    height) {
                 @Override
                 protected void onPostExecute(Bitmap result) {
                     if (result != null) {
-                        mMediaArtImageView.setImageBitmap(result);
+                        showMediaArt(result);
                     } else {
                         mCurrentImageUrl = null;
                     }
@@ -676,13 +834,51 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
                 }
             };
             mFetchBitmapTask = fetchBitmapTask;
-            mFetchBitmapTask.execute(imageUrl);
+            TaskExecutor.getInstance().execute(mFetchBitmapTask, TaskExecutor.Lane.ARTWORK, this,
+                    imageUrl);
         } else if (imageUrl == null) {
-            mMediaArtImageView.setImageBitmap(null);
+            mDeferredImageUrl = null;
+            showMediaArt(null);
         }
         mCurrentImageUrl = imageUrl;
     }
 
+    /**
+     * Loads the art for {@code imageUrl} just before the next draw, when the image view has been
+     * laid out. Only the latest URL deferred this way is loaded.
+     */
+    private void deferMediaArt(Uri imageUrl) {
+        mDeferredImageUrl = imageUrl;
+        if (mMediaArtLayoutPending) {
+            return;
+        }
+        mMediaArtLayoutPending = true;
+        mMediaArtImageView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        mMediaArtImageView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        mMediaArtLayoutPending = false;
+                        Uri deferredImageUrl = mDeferredImageUrl;
+                        mDeferredImageUrl = null;
+                        if (deferredImageUrl != null) {
+                            loadMediaArt(deferredImageUrl);
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Displays a bitmap from the cache, releasing the one displayed before so it can be pooled.
+     */
+    private void showMediaArt(Bitmap bitmap) {
+        mMediaArtImageView.setImageBitmap(bitmap);
+        // Every bitmap we were handed holds its own reference, even a repeated one.
+        mBitmapCache.release(mMediaArtBitmap);
+        mMediaArtBitmap = bitmap;
+    }
+
     protected final void setCurrentMediaTracks(List<MediaTrack> mediaTracks) {
         mMediaTrackAdapter.clear();
         if (mediaTracks != null) {
@@ -709,15 +905,10 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
      * the value unchanged.
      */
     protected final void refreshPlaybackPosition(long position, long duration) {
-        if (!mIsUserSeeking) {
-            if (position == 0) {
-                mStreamPositionTextView.setText(R.string.no_time);
-                mSeekBar.setProgress(0);
-            } else if (position > 0) {
-                mSeekBar.setProgress((int) TimeUnit.MILLISECONDS.toSeconds(position));
-            }
-            mStreamPositionTextView.setText(formatTime(position));
+        if ((position == 0) && (duration == 0)) {
+            stopPlaybackClock();
         }
+        showStreamPosition(position);
 
         if ((duration == 0) || (duration == MediaInfo.UNKNOWN_DURATION)) {
             mStreamDurationTextView.setText(R.string.no_time);
@@ -725,11 +916,76 @@ abstract class BaseCastPlayerActivity extends ActionBarActivity
         } else if (duration > 0) {
             mStreamDurationTextView.setText(formatTime(duration));
             if (!mIsUserSeeking) {
-                mSeekBar.setMax((int) TimeUnit.MILLISECONDS.toSeconds(duration));
+                mSeekBar.setMax((int) duration);
             }
         }
     }
 
+    private void showStreamPosition(long position) {
+        if (mIsUserSeeking) {
+            return;
+        }
+        if (position == 0) {
+            mSeekBar.setProgress(0);
+        } else if (position > 0) {
+            mSeekBar.setProgress((int) position);
+        }
+        // This runs every frame while playing, so only format the text when it changes.
+        long positionSeconds = TimeUnit.MILLISECONDS.toSeconds(position);
+        if (positionSeconds != mDisplayedPositionSeconds) {
+            mDisplayedPositionSeconds = positionSeconds;
+            mStreamPositionTextView.setText(formatTime(position));
+        }
+    }
+
+    /**
+     * Sets the playback clock from a media status received now, and shows the position. Between
+     * statuses the position controls follow the clock, once per frame.
+     *
+     * @param position The stream position.
+     * @param duration The stream duration, as for {@link #refreshPlaybackPosition}.
+     * @param rate The playback rate.
+     * @param advancing Whether the stream is playing.
+     */
+    protected final void syncPlaybackClock(long position, long duration, double rate,
+            boolean advancing) {
+        syncPlaybackClock(position, duration, rate, advancing, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Like {@link #syncPlaybackClock(long, long, double, boolean)}, for a status that was
+     * current at {@code timestamp}, in the {@link SystemClock#elapsedRealtime} time base.
+     */
+    protected final void syncPlaybackClock(long position, long duration, double rate,
+            boolean advancing, long timestamp) {
+        mPlaybackClock.set(position, duration, rate, advancing, timestamp);
+        refreshPlaybackPosition(mPlaybackClock.getPosition(), duration);
+        schedulePlaybackClockTick();
+    }
+
+    /**
+     * Checks the playback clock against a position reported by the player, and resets it if it
+     * has drifted too far.
+     */
+    protected final void correctPlaybackClock(long reportedPosition) {
+        if (mPlaybackClock.correct(reportedPosition)) {
+            Log.d(TAG, "playback clock drifted; reset to " + reportedPosition);
+            showStreamPosition(reportedPosition);
+        }
+    }
+
+    protected final void stopPlaybackClock() {
+        mPlaybackClock.reset();
+        mHandler.removeCallbacks(mPlaybackClockRunnable);
+    }
+
+    private void schedulePlaybackClockTick() {
+        mHandler.removeCallbacks(mPlaybackClockRunnable);
+        if (mPlaybackClock.isAdvancing()) {
+            mHandler.postDelayed(mPlaybackClockRunnable, FRAME_INTERVAL_MS);
+        }
+    }
+
     protected final void refreshDeviceVolume(double percent, boolean muted) {
         if (!mIsUserAdjustingVolume) {
             mDeviceVolumeBar.setProgress((int) (percent * MAX_VOLUME_LEVEL));
@@ -0,0 +1,428 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A two-level cache for artwork. Decoded bitmaps are kept in a memory LRU bounded by bytes and
+ * keyed by URL and target size; the downloaded image files are kept on disk, keyed by URL, in
+ * a directory bounded by total size. Concurrent requests for the same key share one fetch.
+ *
+ * Bitmaps handed out by {@link #get} and {@link #getIfCached} are referenced until passed to
+ * {@link #release}. A bitmap that has left the memory cache and has no references goes to the
+ * {@link BitmapPool}, where the decoder can reuse its memory.
+ */
+public class BitmapCache {
+    private static final String TAG = "BitmapCache";
+    private static final String DISK_CACHE_DIR = "artwork";
+    private static final long DEFAULT_DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static BitmapCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ConcurrentHashMap<String, FutureTask<Bitmap>> mInFlight =
+            new ConcurrentHashMap<String, FutureTask<Bitmap>>();
+    private final File mDiskCacheDir;
+    private final long mMaxDiskBytes;
+    private long mDiskBytes = -1;
+
+    private final BitmapPool mPool;
+    /** Guards the reference counts and hand-off of bitmaps to the pool. */
+    private final Object mRefLock = new Object();
+    private final Map<Bitmap, Integer> mRefCounts = new IdentityHashMap<Bitmap, Integer>();
+    private final Set<Bitmap> mCached =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mCoalesced = new AtomicInteger();
+    private final AtomicInteger mMemoryEvictions = new AtomicInteger();
+    private final AtomicInteger mDiskEvictions = new AtomicInteger();
+
+    /**
+     * Returns the process-wide cache, sized to an eighth of the memory class, with a pool of a
+     * quarter of that.
+     */
+    public static synchronized BitmapCache getInstance(Context context) {
+        if (sInstance == null) {
+            Runtime runtime = Runtime.getRuntime();
+            int memoryBytes = (int) Math.min(Integer.MAX_VALUE, runtime.maxMemory() / 8);
+            File dir = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+            sInstance = new BitmapCache(memoryBytes, dir, DEFAULT_DISK_CACHE_BYTES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param maxMemoryBytes The maximum size of the decoded bitmaps kept in memory.
+     * @param diskCacheDir The directory to keep downloaded images in.
+     * @param maxDiskBytes The maximum total size of the downloaded images kept on disk.
+     */
+    public BitmapCache(int maxMemoryBytes, File diskCacheDir, long maxDiskBytes) {
+        mPool = new BitmapPool(maxMemoryBytes / 4);
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (evicted) {
+                    mMemoryEvictions.incrementAndGet();
+                }
+                if (oldValue != newValue) {
+                    synchronized (mRefLock) {
+                        mCached.remove(oldValue);
+                        if (!mRefCounts.containsKey(oldValue)) {
+                            mPool.put(oldValue);
+                        }
+                    }
+                }
+            }
+        };
+        mDiskCacheDir = diskCacheDir;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Returns a cached bitmap without doing any I/O. The caller must {@link #release} it.
+     *
+     * @return The bitmap, or {@code null} if it is not in memory.
+     */
+    public Bitmap getIfCached(Uri uri, int preferredWidth, int preferredHeight) {
+        Bitmap bitmap = acquireCached(memoryKey(uri, preferredWidth, preferredHeight), null);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+        }
+        // A miss isn't counted here; the caller goes on to get(), which counts it.
+        return bitmap;
+    }
+
+    /**
+     * Returns the bitmap for a URL, scaled to the preferred size, loading it from disk or the
+     * network if needed. Blocks, so must not be called on the UI thread. The caller must
+     * {@link #release} the bitmap.
+     *
+     * @return The bitmap, or {@code null} if it could not be loaded.
+     */
+    public Bitmap get(final Uri uri, final int preferredWidth, final int preferredHeight) {
+        final String key = memoryKey(uri, preferredWidth, preferredHeight);
+        Bitmap bitmap = acquireCached(key, null);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+            return bitmap;
+        }
+
+        FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                byte[] data = loadData(uri);
+                if (data == null) {
+                    return null;
+                }
+                Bitmap bitmap = FetchBitmapTask.decodeBitmap(data, preferredWidth,
+                        preferredHeight, mPool);
+                if (bitmap != null) {
+                    // Hold a reference for the thread that ran the fetch before the bitmap
+                    // becomes visible to eviction.
+                    synchronized (mRefLock) {
+                        acquire(bitmap);
+                        mCached.add(bitmap);
+                        mMemoryCache.put(key, bitmap);
+                    }
+                }
+                return bitmap;
+            }
+        });
+        FutureTask<Bitmap> existing = mInFlight.putIfAbsent(key, task);
+        boolean owner = (existing == null);
+        if (!owner) {
+            mCoalesced.incrementAndGet();
+            task = existing;
+        } else {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+        }
+
+        try {
+            bitmap = task.get();
+            if (owner || (bitmap == null)) {
+                return bitmap;
+            }
+            // The bitmap may have been evicted and pooled since the fetch finished; only take
+            // it if the cache still maps the key to it, otherwise fetch again.
+            Bitmap acquired = acquireCached(key, bitmap);
+            return (acquired != null) ? acquired : get(uri, preferredWidth, preferredHeight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to load " + uri, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Drops a reference taken by {@link #get} or {@link #getIfCached}. Once a bitmap is neither
+     * referenced nor cached it goes to the pool, so the caller must not draw it anymore.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        synchronized (mRefLock) {
+            Integer count = mRefCounts.remove(bitmap);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                mRefCounts.put(bitmap, count - 1);
+            } else if (!mCached.contains(bitmap)) {
+                mPool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Empties the memory cache and the pool. Files on disk are kept.
+     */
+    public void trimMemory() {
+        mMemoryCache.evictAll();
+        mPool.clear();
+    }
+
+    public BitmapPool getPool() {
+        return mPool;
+    }
+
+    public int getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    public int getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    public int getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    public int getMemoryEvictionCount() {
+        return mMemoryEvictions.get();
+    }
+
+    public int getDiskEvictionCount() {
+        return mDiskEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapCache[memoryHits=" + mMemoryHits + " diskHits=" + mDiskHits
+                + " misses=" + mMisses + " coalesced=" + mCoalesced
+                + " memoryEvictions=" + mMemoryEvictions + " diskEvictions=" + mDiskEvictions
+                + " memoryBytes=" + mMemoryCache.size() + " " + mPool + "]";
+    }
+
+    /**
+     * Returns the bitmap cached under {@code key} with a reference taken, or {@code null} if
+     * there is none or, when {@code expected} is given, it is a different bitmap.
+     */
+    private Bitmap acquireCached(String key, Bitmap expected) {
+        synchronized (mRefLock) {
+            Bitmap bitmap = mMemoryCache.get(key);
+            if ((bitmap == null) || ((expected != null) && (bitmap != expected))) {
+                return null;
+            }
+            acquire(bitmap);
+            return bitmap;
+        }
+    }
+
+    private void acquire(Bitmap bitmap) {
+        Integer count = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, (count == null) ? 1 : count + 1);
+    }
+
+    private static String memoryKey(Uri uri, int preferredWidth, int preferredHeight) {
+        return uri.toString() + '#' + preferredWidth + 'x' + preferredHeight;
+    }
+
+    private byte[] loadData(Uri uri) throws IOException {
+        File file = new File(mDiskCacheDir, diskKey(uri.toString()));
+        if (file.exists()) {
+            byte[] data = readFully(new FileInputStream(file), (int) file.length());
+            file.setLastModified(System.currentTimeMillis());
+            mDiskHits.incrementAndGet();
+            return data;
+        }
+
+        mMisses.incrementAndGet();
+        byte[] data = download(uri);
+        if (data != null) {
+            writeToDisk(file, data);
+        }
+        return data;
+    }
+
+    /**
+     * Downloads the whole response body, so it can be decoded without fetching it again.
+     */
+    static byte[] download(Uri uri) throws IOException {
+        URL url = new URL(uri.toString());
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setDoInput(true);
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            return readFully(urlConnection.getInputStream(), urlConnection.getContentLength());
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    sizeHint > 0 ? sizeHint : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void writeToDisk(File file, byte[] data) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            File[] files = mDiskCacheDir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    mDiskBytes += f.length();
+                }
+            }
+        }
+
+        File tmp = new File(mDiskCacheDir, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.close();
+            out = null;
+            long oldLength = file.length();
+            if (tmp.renameTo(file)) {
+                mDiskBytes += data.length - oldLength;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { /* ignore */
+                }
+            }
+            tmp.delete();
+        }
+        trimDisk();
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits its budget.
+     */
+    private void trimDisk() {
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+        });
+        for (int i = 0; (i < files.length) && (mDiskBytes > mMaxDiskBytes); i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                mDiskBytes -= length;
+                mDiskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns a file name for a cache key, the hex SHA-1 of the key.
+     */
+    static String diskKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
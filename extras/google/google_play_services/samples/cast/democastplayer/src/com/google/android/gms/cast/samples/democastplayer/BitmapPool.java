@@ -0,0 +1,186 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of mutable bitmaps that the decoder can reuse through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}. Bitmaps are grouped into power-of-two
+ * size classes by allocation size, and the pool as a whole is bounded by bytes.
+ *
+ * Before KitKat a bitmap can only be reused for an image of exactly the same dimensions decoded
+ * without subsampling; from KitKat on any bitmap at least as large will do. Before Honeycomb
+ * there is no reuse at all and the pool stays empty.
+ */
+public class BitmapPool {
+    private static final int SIZE_CLASSES = 32;
+    /** How many size classes above the requested one we look in before giving up. */
+    private static final int MAX_CLASS_STEP = 1;
+
+    private final List<List<Bitmap>> mClasses = new ArrayList<List<Bitmap>>(SIZE_CLASSES);
+    private final long mMaxBytes;
+    private long mBytes;
+
+    private int mRequests;
+    private int mReuses;
+    private int mPuts;
+    private int mRejects;
+    private int mEvictions;
+
+    /**
+     * @param maxBytes The maximum total allocation size of the pooled bitmaps.
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            mClasses.add(new ArrayList<Bitmap>());
+        }
+    }
+
+    /**
+     * @return true if this platform can decode into an existing bitmap at all.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Removes and returns a bitmap that an image of the given decoded size can be decoded into.
+     *
+     * @param width The width the image will have once decoded.
+     * @param height The height the image will have once decoded.
+     * @param sampleSize The sample size the image will be decoded with.
+     * @return A reusable bitmap, or {@code null} if the pool has none that fits.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config,
+            int sampleSize) {
+        if (!isSupported()) {
+            return null;
+        }
+        mRequests++;
+        boolean kitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!kitKat && (sampleSize > 1)) {
+            return null;
+        }
+
+        int required = width * height * bytesPerPixel(config);
+        int sizeClass = sizeClassOf(required);
+        int lastClass = Math.min(SIZE_CLASSES - 1, sizeClass + (kitKat ? MAX_CLASS_STEP : 0));
+        for (int c = sizeClass; c <= lastClass; c++) {
+            List<Bitmap> bitmaps = mClasses.get(c);
+            for (int i = bitmaps.size() - 1; i >= 0; i--) {
+                Bitmap candidate = bitmaps.get(i);
+                boolean fits = kitKat
+                        ? (allocationSize(candidate) >= required)
+                        : ((candidate.getWidth() == width) && (candidate.getHeight() == height)
+                                && (candidate.getConfig() == config));
+                if (fits) {
+                    bitmaps.remove(i);
+                    mBytes -= allocationSize(candidate);
+                    mReuses++;
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Offers a bitmap that nothing references anymore. Bitmaps the pool can't use are recycled.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if ((bitmap == null) || bitmap.isRecycled()) {
+            return;
+        }
+        int size = allocationSize(bitmap);
+        if (!isSupported() || !bitmap.isMutable() || (size > mMaxBytes)) {
+            mRejects++;
+            bitmap.recycle();
+            return;
+        }
+        mPuts++;
+        mClasses.get(sizeClassOf(size)).add(bitmap);
+        mBytes += size;
+        trimToSize();
+    }
+
+    /**
+     * Recycles every pooled bitmap.
+     */
+    public synchronized void clear() {
+        for (List<Bitmap> bitmaps : mClasses) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+            bitmaps.clear();
+        }
+        mBytes = 0;
+    }
+
+    /**
+     * @return The fraction of {@link #get} calls that returned a bitmap.
+     */
+    public synchronized float getReuseRate() {
+        return (mRequests == 0) ? 0 : ((float) mReuses / mRequests);
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized int getReuseCount() {
+        return mReuses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[requests=" + mRequests + " reuses=" + mReuses
+                + " puts=" + mPuts + " rejects=" + mRejects + " evictions=" + mEvictions
+                + " bytes=" + mBytes + "]";
+    }
+
+    private void trimToSize() {
+        // Drop from the largest classes first; they are the hardest to reuse.
+        for (int c = SIZE_CLASSES - 1; (c >= 0) && (mBytes > mMaxBytes); c--) {
+            List<Bitmap> bitmaps = mClasses.get(c);
+            while (!bitmaps.isEmpty() && (mBytes > mMaxBytes)) {
+                Bitmap bitmap = bitmaps.remove(0);
+                mBytes -= allocationSize(bitmap);
+                mEvictions++;
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private static int sizeClassOf(int bytes) {
+        int log2 = 32 - Integer.numberOfLeadingZeros(Math.max(0, bytes - 1));
+        return Math.min(SIZE_CLASSES - 1, log2);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    static int allocationSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if ((config == Bitmap.Config.RGB_565) || (config == Bitmap.Config.ARGB_4444)) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,143 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaInfo;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares loading a synthetic catalog from XML with loading it from a {@link CatalogSnapshot},
+ * and times building and querying a {@link CatalogSearchIndex} over it. Blocks for a few
+ * seconds, so must not be run on the UI thread.
+ */
+public class CatalogBenchmark {
+    private static final String TAG = "CatalogBenchmark";
+    public static final int DEFAULT_ENTRIES = 10000;
+    private static final int RUNS = 5;
+    private static final int QUERY_RUNS = 200;
+    /** Queries as they would be typed, one keystroke at a time. */
+    private static final String[] QUERIES = {
+            "t", "ti", "tit", "titl", "title", "title 4", "title 42", "stu", "itle 99", "zzz"
+    };
+
+    private CatalogBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param context A context whose cache directory can hold the snapshot.
+     * @param entries The number of {@code <media>} entries in the catalog.
+     * @return A one-line summary of the median timings.
+     */
+    public static String run(Context context, int entries)
+            throws IOException, XmlPullParserException {
+        byte[] xml = buildCatalog(entries);
+        String hash = CatalogSnapshot.hashOf(xml);
+        File file = new File(context.getCacheDir(), "benchmark.snapshot");
+
+        long[] xmlTimes = new long[RUNS];
+        List<MediaInfo> items = null;
+        for (int i = 0; i < RUNS; i++) {
+            long startTime = SystemClock.elapsedRealtime();
+            items = new ArrayList<MediaInfo>(entries);
+            MediaSelectionDialog.readFile(xml, items);
+            xmlTimes[i] = SystemClock.elapsedRealtime() - startTime;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        CatalogSnapshot.write(file, items, MediaSelectionDialog.FILE_FORMAT_VERSION, hash);
+        long writeTime = SystemClock.elapsedRealtime() - startTime;
+
+        long[] snapshotTimes = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            startTime = SystemClock.elapsedRealtime();
+            List<MediaInfo> loaded = CatalogSnapshot.read(file,
+                    MediaSelectionDialog.FILE_FORMAT_VERSION, hash);
+            snapshotTimes[i] = SystemClock.elapsedRealtime() - startTime;
+            if ((loaded == null) || (loaded.size() != items.size())) {
+                throw new IOException("Snapshot did not round-trip");
+            }
+        }
+
+        String result = entries + " entries (" + xml.length + " bytes XML, " + file.length()
+                + " bytes snapshot): XML " + median(xmlTimes) + "ms, snapshot "
+                + median(snapshotTimes) + "ms, snapshot write " + writeTime + "ms; "
+                + runSearch(items);
+        Log.d(TAG, result);
+        file.delete();
+        return result;
+    }
+
+    /**
+     * Times building a search index over {@code items}, and the mean and worst latency of the
+     * keystroke queries.
+     */
+    static String runSearch(List<MediaInfo> items) {
+        long[] buildTimes = new long[RUNS];
+        CatalogSearchIndex index = null;
+        for (int i = 0; i < RUNS; i++) {
+            long startTime = SystemClock.elapsedRealtime();
+            index = new CatalogSearchIndex(items);
+            buildTimes[i] = SystemClock.elapsedRealtime() - startTime;
+        }
+
+        long totalNanos = 0;
+        long worstNanos = 0;
+        for (int run = 0; run < QUERY_RUNS; run++) {
+            for (String query : QUERIES) {
+                long startTime = System.nanoTime();
+                index.search(query, Integer.MAX_VALUE);
+                long nanos = System.nanoTime() - startTime;
+                totalNanos += nanos;
+                worstNanos = Math.max(worstNanos, nanos);
+            }
+        }
+        return "index build " + median(buildTimes) + "ms, query mean "
+                + (totalNanos / (QUERY_RUNS * QUERIES.length) / 1000) + "us, worst "
+                + (worstNanos / 1000) + "us";
+    }
+
+    /**
+     * Builds a catalog in the format {@link MediaSelectionDialog} reads, with one audio and one
+     * text track per entry.
+     */
+    static byte[] buildCatalog(int entries) throws UnsupportedEncodingException {
+        StringBuilder builder = new StringBuilder(entries * 512);
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<medias version=\"")
+                .append(MediaSelectionDialog.FILE_FORMAT_VERSION).append("\">\n");
+        for (int i = 0; i < entries; i++) {
+            builder.append("<media imageUrl=\"http://example.com/art/").append(i)
+                    .append(".jpg\" mimeType=\"video/mp4\" studio=\"Studio ").append(i % 50)
+                    .append("\" title=\"Title ").append(i)
+                    .append("\" type=\"movie\" url=\"http://example.com/media/").append(i)
+                    .append(".mp4\">\n")
+                    .append("<track id=\"1\" type=\"audio\" contentId=\"trk0001\"")
+                    .append(" name=\"English Audio\" language=\"en\"/>\n")
+                    .append("<track id=\"2\" type=\"text\" subtype=\"captions\"")
+                    .append(" contentId=\"http://example.com/captions/").append(i)
+                    .append(".vtt\" contentType=\"text/vtt\" name=\"English\" language=\"en\"/>\n")
+                    .append("</media>\n");
+        }
+        builder.append("</medias>\n");
+        return builder.toString().getBytes("UTF-8");
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,397 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaInfo;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache for the media catalog. The raw response is kept on disk along with its ETag and
+ * Last-Modified validators, and is revalidated with a conditional GET; a 304 response reuses the
+ * cached entry, including the list already parsed from it, if any.
+ *
+ * Entries are keyed by URL, so the cache works against any HTTP server, including a local
+ * stand-in.
+ */
+public class CatalogCache {
+    private static final String TAG = "CatalogCache";
+    private static final String CACHE_DIR = "catalog";
+    private static final int FILE_FORMAT_VERSION = 1;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 20000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static CatalogCache sInstance;
+
+    private final File mCacheDir;
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    private final AtomicInteger mFetches = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicInteger mFailures = new AtomicInteger();
+
+    /**
+     * Consumes a response body while it downloads.
+     */
+    public interface BodyReader {
+        /**
+         * @param in The body. Whatever isn't read is still downloaded and cached afterwards.
+         * @throws IOException If the body is unusable. It is then not cached.
+         */
+        void read(InputStream in) throws IOException;
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+        private final String mUrl;
+        private final byte[] mData;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mFetchedTime;
+        private volatile List<MediaInfo> mItems;
+        private String mSourceHash;
+
+        Entry(String url, byte[] data, String eTag, String lastModified, long fetchedTime) {
+            mUrl = url;
+            mData = data;
+            mETag = eTag;
+            mLastModified = lastModified;
+            mFetchedTime = fetchedTime;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public long getFetchedTime() {
+            return mFetchedTime;
+        }
+
+        /**
+         * @return The {@link CatalogSnapshot#hashOf hash} of the data.
+         */
+        public synchronized String getSourceHash() {
+            if (mSourceHash == null) {
+                mSourceHash = CatalogSnapshot.hashOf(mData);
+            }
+            return mSourceHash;
+        }
+
+        /**
+         * @return The list parsed from the data, or {@code null} if it hasn't been parsed yet.
+         */
+        public List<MediaInfo> getItems() {
+            return mItems;
+        }
+
+        /**
+         * Keeps the list parsed from the data with the entry. The list must not be modified
+         * afterwards.
+         */
+        public void setItems(List<MediaInfo> items) {
+            mItems = items;
+        }
+    }
+
+    public static synchronized CatalogCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CatalogCache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIR));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param cacheDir The directory to keep responses in.
+     */
+    public CatalogCache(File cacheDir) {
+        mCacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the cached response for a URL without doing any network I/O.
+     *
+     * @return The entry, or {@code null} if nothing is cached.
+     */
+    public Entry getCached(String url) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(url);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Entry entry = readFromDisk(url);
+        if (entry != null) {
+            synchronized (mEntries) {
+                if (!mEntries.containsKey(url)) {
+                    mEntries.put(url, entry);
+                }
+                return mEntries.get(url);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches a URL, revalidating the cached response if there is one. Blocks, so must not be
+     * called on the UI thread.
+     *
+     * @return The cached entry, unchanged, if the server says it is still current; otherwise a
+     *     new entry holding the response.
+     * @throws IOException If the catalog could not be fetched.
+     */
+    public Entry fetch(String url) throws IOException {
+        return fetch(url, null);
+    }
+
+    /**
+     * Like {@link #fetch(String)}, but if a new response arrives, hands its body to
+     * {@code reader} while it is still downloading.
+     *
+     * @param reader The reader for a new body, or {@code null}. It is not called on a 304.
+     * @throws IOException If the catalog could not be fetched, or the reader failed. The cached
+     *     entry, if any, is then left as it was.
+     */
+    public Entry fetch(String url, BodyReader reader) throws IOException {
+        Entry cached = getCached(url);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            // We do our own caching; don't let a platform response cache answer for the server.
+            connection.setUseCaches(false);
+            if (cached != null) {
+                if (cached.mETag != null) {
+                    connection.setRequestProperty("If-None-Match", cached.mETag);
+                }
+                if (cached.mLastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", cached.mLastModified);
+                }
+            }
+
+            int responseCode = connection.getResponseCode();
+            if ((responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) && (cached != null)) {
+                mNotModified.incrementAndGet();
+                Log.d(TAG, "not modified: " + url);
+                return cached;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode + " for " + url);
+            }
+
+            byte[] data = readBody(connection.getInputStream(), connection.getContentLength(),
+                    reader);
+            mFetches.incrementAndGet();
+            Entry entry = new Entry(url, data, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), System.currentTimeMillis());
+            synchronized (mEntries) {
+                mEntries.put(url, entry);
+            }
+            writeToDisk(entry);
+            return entry;
+        } catch (IOException e) {
+            mFailures.incrementAndGet();
+            throw e;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns where to keep the {@link CatalogSnapshot} parsed from the response for a URL.
+     */
+    public File getSnapshotFile(String url) {
+        if (!mCacheDir.isDirectory()) {
+            mCacheDir.mkdirs();
+        }
+        return new File(mCacheDir, BitmapCache.diskKey(url) + ".snapshot");
+    }
+
+    /**
+     * Forgets the cached response for a URL.
+     */
+    public void invalidate(String url) {
+        synchronized (mEntries) {
+            mEntries.remove(url);
+        }
+        new File(mCacheDir, BitmapCache.diskKey(url)).delete();
+        getSnapshotFile(url).delete();
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogCache[fetches=" + mFetches + " notModified=" + mNotModified
+                + " failures=" + mFailures + "]";
+    }
+
+    /**
+     * Reads a whole body, copying it aside as the reader consumes it.
+     */
+    private static byte[] readBody(InputStream in, int sizeHint, BodyReader reader)
+            throws IOException {
+        if (reader == null) {
+            return BitmapCache.readFully(in, sizeHint);
+        }
+        ByteArrayOutputStream copy = new ByteArrayOutputStream(
+                (sizeHint > 0) ? sizeHint : BUFFER_SIZE);
+        InputStream tee = new TeeInputStream(in, copy);
+        try {
+            reader.read(tee);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (tee.read(buffer) != -1) {
+                // Drain the rest into the copy.
+            }
+        } finally {
+            in.close();
+        }
+        return copy.toByteArray();
+    }
+
+    private Entry readFromDisk(String url) {
+        File file = new File(mCacheDir, BitmapCache.diskKey(url));
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_FORMAT_VERSION) {
+                return null;
+            }
+            if (!url.equals(in.readUTF())) {
+                // A hash collision; treat it as a miss.
+                return null;
+            }
+            String eTag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            long fetchedTime = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Entry(url, data, eTag, lastModified, fetchedTime);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { /* ignore */
+                }
+            }
+        }
+    }
+
+    private synchronized void writeToDisk(Entry entry) {
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            return;
+        }
+        File file = new File(mCacheDir, BitmapCache.diskKey(entry.mUrl));
+        File tmp = new File(mCacheDir, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeUTF(entry.mUrl);
+            writeOptionalUTF(out, entry.mETag);
+            writeOptionalUTF(out, entry.mLastModified);
+            out.writeLong(entry.mFetchedTime);
+            out.writeInt(entry.mData.length);
+            out.write(entry.mData);
+            out.close();
+            out = null;
+            tmp.renameTo(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { /* ignore */
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    private static void writeOptionalUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Copies everything read from a stream into a buffer.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream mCopy;
+
+        TeeInputStream(InputStream in, ByteArrayOutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCopy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCopy.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            // Read rather than skip, so the copy stays complete.
+            byte[] buffer = new byte[(int) Math.min(count, BUFFER_SIZE)];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(0, read);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The parser may close the stream early; the rest is still drained into the copy.
+        }
+    }
+}
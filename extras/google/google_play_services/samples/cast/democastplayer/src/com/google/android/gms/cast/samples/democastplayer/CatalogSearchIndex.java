@@ -0,0 +1,359 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An in-memory search index over the title, series title, artist and studio of a catalog.
+ *
+ * Words are kept in a sorted array, so a query term finds every word it is a prefix of with a
+ * binary search. Terms of three or more characters also match inside words, through posting
+ * lists of the items containing each trigram; the intersection of a term's lists is verified
+ * against the text. An item matches a query if it matches every term. Matches are ranked by
+ * field (title first) and by kind of match (whole word, then prefix, then substring), and then
+ * by catalog order.
+ *
+ * Searches are serialized, since they share scratch arrays to avoid allocating per keystroke.
+ */
+public class CatalogSearchIndex {
+    private static final String[] FIELD_KEYS = {
+            MediaMetadata.KEY_TITLE,
+            MediaMetadata.KEY_SERIES_TITLE,
+            MediaMetadata.KEY_ARTIST,
+            MediaMetadata.KEY_STUDIO
+    };
+    private static final int[] FIELD_WEIGHTS = {8, 4, 4, 2};
+    private static final int MATCH_WORD = 3;
+    private static final int MATCH_PREFIX = 2;
+    private static final int MATCH_SUBSTRING = 1;
+    private static final int[] EMPTY = new int[0];
+
+    private final List<MediaInfo> mItems;
+    /** Normalized field text, by item and field; null where the item has no such field. */
+    private final String[][] mFields;
+
+    /** Every word of every field, sorted, with the item and field it came from. */
+    private final String[] mWords;
+    private final int[] mWordItems;
+    private final byte[] mWordFields;
+
+    /** Sorted, duplicate-free lists of the items containing each trigram. */
+    private final Map<Long, int[]> mTrigrams;
+
+    private final int[] mTermScores;
+    private final int[] mTotals;
+    private final int[] mMatchedTerms;
+    private final int[] mCandidates;
+    /** The items that matched the first term: the only ones a search leaves scratch state on. */
+    private final int[] mMatches;
+
+    /**
+     * Builds the index. Takes time proportional to the size of the catalog, so should be done
+     * off the UI thread.
+     *
+     * @param items The catalog. Must not be modified while the index is in use.
+     */
+    public CatalogSearchIndex(List<MediaInfo> items) {
+        mItems = items;
+        int count = items.size();
+        mFields = new String[count][];
+
+        List<Word> words = new ArrayList<Word>();
+        Map<Long, IntList> trigrams = new HashMap<Long, IntList>();
+
+        for (int item = 0; item < count; item++) {
+            MediaMetadata metadata = items.get(item).getMetadata();
+            String[] fields = new String[FIELD_KEYS.length];
+            for (int field = 0; field < FIELD_KEYS.length; field++) {
+                String value = ((metadata != null) && metadata.containsKey(FIELD_KEYS[field]))
+                        ? metadata.getString(FIELD_KEYS[field]) : null;
+                if (value == null) {
+                    continue;
+                }
+                String text = normalize(value);
+                fields[field] = text;
+                for (String word : tokenize(text)) {
+                    words.add(new Word(word, item, field));
+                }
+                for (int i = 0; i + 3 <= text.length(); i++) {
+                    Long key = trigram(text, i);
+                    IntList posting = trigrams.get(key);
+                    if (posting == null) {
+                        posting = new IntList();
+                        trigrams.put(key, posting);
+                    }
+                    posting.addIfLast(item);
+                }
+            }
+            mFields[item] = fields;
+        }
+
+        Word[] sorted = words.toArray(new Word[words.size()]);
+        Arrays.sort(sorted);
+        mWords = new String[sorted.length];
+        mWordItems = new int[sorted.length];
+        mWordFields = new byte[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            mWords[i] = sorted[i].mText;
+            mWordItems[i] = sorted[i].mItem;
+            mWordFields[i] = sorted[i].mField;
+        }
+
+        mTrigrams = new HashMap<Long, int[]>(trigrams.size());
+        for (Map.Entry<Long, IntList> entry : trigrams.entrySet()) {
+            mTrigrams.put(entry.getKey(), entry.getValue().toArray());
+        }
+
+        mTermScores = new int[count];
+        mTotals = new int[count];
+        mMatchedTerms = new int[count];
+        mCandidates = new int[count];
+        mMatches = new int[count];
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    /**
+     * @return The list the index was built over.
+     */
+    public List<MediaInfo> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Returns the items that match a query, best first.
+     *
+     * @param query The text typed by the user.
+     * @param limit The maximum number of matches to return.
+     * @return The matches, or the whole catalog if the query has no words.
+     */
+    public synchronized List<MediaInfo> search(String query, int limit) {
+        String[] terms = tokenize(normalize(query));
+        if (terms.length == 0) {
+            return mItems;
+        }
+
+        int matchCount = 0;
+        for (int t = 0; t < terms.length; t++) {
+            String term = terms[t];
+            int candidateCount = 0;
+
+            // The words starting with term sort between term and term + Character.MAX_VALUE.
+            int end = lowerBound(term + Character.MAX_VALUE);
+            for (int i = lowerBound(term); i < end; i++) {
+                int item = mWordItems[i];
+                int kind = (mWords[i].length() == term.length()) ? MATCH_WORD : MATCH_PREFIX;
+                int score = FIELD_WEIGHTS[mWordFields[i]] * kind;
+                if (mTermScores[item] == 0) {
+                    mCandidates[candidateCount++] = item;
+                }
+                mTermScores[item] = Math.max(mTermScores[item], score);
+            }
+
+            if (term.length() >= 3) {
+                for (int item : itemsWithTrigramsOf(term)) {
+                    if (mTermScores[item] != 0) {
+                        // A word or prefix match always outranks a substring match.
+                        continue;
+                    }
+                    int score = substringScore(item, term);
+                    if (score > 0) {
+                        mCandidates[candidateCount++] = item;
+                        mTermScores[item] = score;
+                    }
+                }
+            }
+
+            // An item stays in the running only if it matched every earlier term.
+            for (int c = 0; c < candidateCount; c++) {
+                int item = mCandidates[c];
+                if (mMatchedTerms[item] == t) {
+                    if (t == 0) {
+                        mMatches[matchCount++] = item;
+                    }
+                    mMatchedTerms[item] = t + 1;
+                    mTotals[item] += mTermScores[item];
+                }
+                mTermScores[item] = 0;
+            }
+        }
+
+        // Keep the items that matched every term, clearing the others, and put them in catalog
+        // order so ties stay in catalog order. This and the ranking below only touch the items
+        // that matched the first term, not the whole catalog.
+        int found = 0;
+        for (int m = 0; m < matchCount; m++) {
+            int item = mMatches[m];
+            if (mMatchedTerms[item] == terms.length) {
+                mMatches[found++] = item;
+            } else {
+                mMatchedTerms[item] = 0;
+                mTotals[item] = 0;
+            }
+        }
+        Arrays.sort(mMatches, 0, found);
+
+        // Scores are small, so rank with a counting sort, which also clears the scratch arrays
+        // for the next search.
+        int maxScore = terms.length * FIELD_WEIGHTS[0] * MATCH_WORD;
+        int[] slots = new int[maxScore + 2];
+        for (int m = 0; m < found; m++) {
+            slots[maxScore - mTotals[mMatches[m]] + 1]++;
+        }
+        for (int i = 1; i < slots.length; i++) {
+            slots[i] += slots[i - 1];
+        }
+
+        int resultCount = Math.min(found, limit);
+        MediaInfo[] result = new MediaInfo[resultCount];
+        for (int m = 0; m < found; m++) {
+            int item = mMatches[m];
+            int slot = slots[maxScore - mTotals[item]]++;
+            if (slot < resultCount) {
+                result[slot] = mItems.get(item);
+            }
+            mMatchedTerms[item] = 0;
+            mTotals[item] = 0;
+        }
+        return Collections.unmodifiableList(Arrays.asList(result));
+    }
+
+    private int substringScore(int item, String term) {
+        String[] fields = mFields[item];
+        for (int field = 0; field < fields.length; field++) {
+            if ((fields[field] != null) && fields[field].contains(term)) {
+                // Fields are in descending weight order, so the first hit is the best.
+                return FIELD_WEIGHTS[field] * MATCH_SUBSTRING;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the items that contain every trigram of {@code term}, a superset of the items
+     * that contain the term.
+     */
+    private int[] itemsWithTrigramsOf(String term) {
+        int[] result = null;
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            int[] posting = mTrigrams.get(trigram(term, i));
+            if (posting == null) {
+                return EMPTY;
+            }
+            result = (result == null) ? posting : intersect(result, posting);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; (i < a.length) && (j < b.length); ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return (count == out.length) ? out : Arrays.copyOf(out, count);
+    }
+
+    /**
+     * Returns the index of the first word not less than {@code term}.
+     */
+    private int lowerBound(String term) {
+        int low = 0;
+        int high = mWords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mWords[mid].compareTo(term) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.US);
+    }
+
+    private static String[] tokenize(String text) {
+        List<String> words = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = (i < text.length()) && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && (start < 0)) {
+                start = i;
+            } else if (!wordChar && (start >= 0)) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    private static Long trigram(String text, int start) {
+        return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16)
+                | text.charAt(start + 2);
+    }
+
+    private static class Word implements Comparable<Word> {
+        final String mText;
+        final int mItem;
+        final byte mField;
+
+        Word(String text, int item, int field) {
+            mText = text;
+            mItem = item;
+            mField = (byte) field;
+        }
+
+        @Override
+        public int compareTo(Word other) {
+            return mText.compareTo(other.mText);
+        }
+    }
+
+    /**
+     * A growable int array that keeps items unique when they are added in ascending order.
+     */
+    private static class IntList {
+        private int[] mValues = new int[4];
+        private int mSize;
+
+        void addIfLast(int value) {
+            if ((mSize > 0) && (mValues[mSize - 1] == value)) {
+                return;
+            }
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
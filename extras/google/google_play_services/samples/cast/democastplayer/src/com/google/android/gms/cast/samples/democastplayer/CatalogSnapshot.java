@@ -0,0 +1,377 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaTrack;
+import com.google.android.gms.common.images.WebImage;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary form of a parsed media catalog, so the next launch can skip the XML parser.
+ *
+ * <pre>
+ * header:  magic, snapshot version, catalog format version, source hash, counts
+ * strings: (count + 1) offsets into a UTF-8 blob, then the blob
+ * media:   fixed-width records of string indexes, types, and a range in the track array
+ * tracks:  fixed-width records
+ * </pre>
+ * A string index of -1 stands for {@code null}. A snapshot is only used if it was written by the
+ * same snapshot and catalog format versions, from a source with the same hash; otherwise the
+ * caller falls back to the XML.
+ */
+public class CatalogSnapshot {
+    private static final String TAG = "CatalogSnapshot";
+    private static final int MAGIC = 0x43415453; // "CATS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String UTF_8 = "UTF-8";
+
+    private static final int MEDIA_RECORD_SIZE = 11 * 4;
+    private static final int TRACK_RECORD_SIZE = 8 + 6 * 4;
+
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Returns the hash that identifies the source a snapshot was built from.
+     */
+    public static String hashOf(byte[] source) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(source);
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return source.length + ":" + Arrays.hashCode(source);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a catalog. Failures are logged and leave no file behind.
+     *
+     * @param file The file to write.
+     * @param items The parsed catalog.
+     * @param formatVersion The catalog format version the items were parsed with.
+     * @param sourceHash The {@link #hashOf hash} of the catalog source.
+     */
+    public static void write(File file, List<MediaInfo> items, String formatVersion,
+            String sourceHash) {
+        StringTable strings = new StringTable();
+        int formatIndex = strings.indexOf(formatVersion);
+        int hashIndex = strings.indexOf(sourceHash);
+
+        int trackCount = 0;
+        for (MediaInfo item : items) {
+            List<MediaTrack> tracks = item.getMediaTracks();
+            trackCount += (tracks != null) ? tracks.size() : 0;
+        }
+
+        ByteBuffer media = ByteBuffer.allocate(items.size() * MEDIA_RECORD_SIZE);
+        ByteBuffer tracks = ByteBuffer.allocate(trackCount * TRACK_RECORD_SIZE);
+        int trackIndex = 0;
+        for (MediaInfo item : items) {
+            MediaMetadata metadata = item.getMetadata();
+            List<WebImage> images = (metadata != null) ? metadata.getImages() : null;
+            Uri imageUrl = ((images != null) && !images.isEmpty()) ? images.get(0).getUrl() : null;
+            List<MediaTrack> itemTracks = item.getMediaTracks();
+            int itemTrackCount = (itemTracks != null) ? itemTracks.size() : 0;
+
+            media.putInt(strings.indexOf(item.getContentId()));
+            media.putInt(strings.indexOf(item.getContentType()));
+            media.putInt(item.getStreamType());
+            media.putInt((metadata != null) ? metadata.getMediaType()
+                    : MediaMetadata.MEDIA_TYPE_GENERIC);
+            media.putInt(strings.indexOf(getString(metadata, MediaMetadata.KEY_TITLE)));
+            media.putInt(strings.indexOf(getString(metadata, MediaMetadata.KEY_STUDIO)));
+            media.putInt(strings.indexOf(getString(metadata, MediaMetadata.KEY_ARTIST)));
+            media.putInt(strings.indexOf(getString(metadata, MediaMetadata.KEY_SERIES_TITLE)));
+            media.putInt(strings.indexOf((imageUrl != null) ? imageUrl.toString() : null));
+            // -1 keeps a null track list apart from an empty one.
+            media.putInt((itemTracks != null) ? trackIndex : -1);
+            media.putInt(itemTrackCount);
+
+            for (int i = 0; i < itemTrackCount; i++) {
+                MediaTrack track = itemTracks.get(i);
+                tracks.putLong(track.getId());
+                tracks.putInt(track.getType());
+                tracks.putInt(track.getSubtype());
+                tracks.putInt(strings.indexOf(track.getName()));
+                tracks.putInt(strings.indexOf(track.getContentId()));
+                tracks.putInt(strings.indexOf(track.getContentType()));
+                tracks.putInt(strings.indexOf(track.getLanguage()));
+            }
+            trackIndex += itemTrackCount;
+        }
+
+        byte[] blob = strings.toBlob();
+        ByteBuffer header = ByteBuffer.allocate(7 * 4 + (strings.size() + 1) * 4);
+        header.putInt(MAGIC);
+        header.putInt(SNAPSHOT_VERSION);
+        header.putInt(formatIndex);
+        header.putInt(hashIndex);
+        header.putInt(strings.size());
+        header.putInt(items.size());
+        header.putInt(trackCount);
+        for (int offset : strings.offsets()) {
+            header.putInt(offset);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(header.array());
+            out.write(blob);
+            out.write(media.array());
+            out.write(tracks.array());
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Failed to rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) { /* ignore */
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Reads a snapshot by mapping the file into memory.
+     *
+     * @param file The file to read.
+     * @param formatVersion The catalog format version the caller would parse the XML with.
+     * @param sourceHash The {@link #hashOf hash} of the current catalog source.
+     * @return The catalog, or {@code null} if there is no usable snapshot.
+     */
+    public static List<MediaInfo> read(File file, String formatVersion, String sourceHash) {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer, formatVersion, sourceHash);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) { /* ignore */
+                }
+            }
+        }
+    }
+
+    static List<MediaInfo> read(ByteBuffer buffer, String formatVersion, String sourceHash) {
+        try {
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != SNAPSHOT_VERSION)) {
+                return null;
+            }
+            int formatIndex = buffer.getInt();
+            int hashIndex = buffer.getInt();
+            int stringCount = buffer.getInt();
+            int mediaCount = buffer.getInt();
+            int trackCount = buffer.getInt();
+
+            if ((stringCount < 0) || (stringCount > buffer.remaining() / 4) || (mediaCount < 0)
+                    || (trackCount < 0)) {
+                return null;
+            }
+            int[] offsets = new int[stringCount + 1];
+            for (int i = 0; i <= stringCount; i++) {
+                offsets[i] = buffer.getInt();
+            }
+            if ((offsets[stringCount] < 0) || (offsets[stringCount] > buffer.remaining())) {
+                return null;
+            }
+            byte[] blob = new byte[offsets[stringCount]];
+            buffer.get(blob);
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                strings[i] = new String(blob, offsets[i], offsets[i + 1] - offsets[i], UTF_8);
+            }
+            if (!formatVersion.equals(string(strings, formatIndex))
+                    || !sourceHash.equals(string(strings, hashIndex))) {
+                return null;
+            }
+
+            int mediaStart = buffer.position();
+            long mediaEnd = mediaStart + (long) mediaCount * MEDIA_RECORD_SIZE;
+            if (mediaEnd > buffer.limit()) {
+                return null;
+            }
+            int trackStart = (int) mediaEnd;
+            if ((long) trackStart + (long) trackCount * TRACK_RECORD_SIZE > buffer.limit()) {
+                return null;
+            }
+
+            List<MediaInfo> items = new ArrayList<MediaInfo>(mediaCount);
+            for (int m = 0; m < mediaCount; m++) {
+                int record = mediaStart + m * MEDIA_RECORD_SIZE;
+                String contentId = string(strings, buffer.getInt(record));
+                String contentType = string(strings, buffer.getInt(record + 4));
+                int streamType = buffer.getInt(record + 8);
+                MediaMetadata metadata = new MediaMetadata(buffer.getInt(record + 12));
+                putString(metadata, MediaMetadata.KEY_TITLE, strings, buffer.getInt(record + 16));
+                putString(metadata, MediaMetadata.KEY_STUDIO, strings,
+                        buffer.getInt(record + 20));
+                putString(metadata, MediaMetadata.KEY_ARTIST, strings,
+                        buffer.getInt(record + 24));
+                putString(metadata, MediaMetadata.KEY_SERIES_TITLE, strings,
+                        buffer.getInt(record + 28));
+                String imageUrl = string(strings, buffer.getInt(record + 32));
+                if (imageUrl != null) {
+                    metadata.addImage(new WebImage(Uri.parse(imageUrl)));
+                }
+                int firstTrack = buffer.getInt(record + 36);
+                int itemTrackCount = buffer.getInt(record + 40);
+
+                List<MediaTrack> tracks = null;
+                if (firstTrack >= 0) {
+                    tracks = new ArrayList<MediaTrack>(itemTrackCount);
+                    for (int t = firstTrack; t < firstTrack + itemTrackCount; t++) {
+                        tracks.add(readTrack(buffer, trackStart + t * TRACK_RECORD_SIZE,
+                                strings));
+                    }
+                }
+
+                items.add(new MediaInfo.Builder(contentId)
+                        .setStreamType(streamType)
+                        .setContentType(contentType)
+                        .setMetadata(metadata)
+                        .setMediaTracks(tracks)
+                        .build());
+            }
+            return items;
+        } catch (BufferUnderflowException e) {
+            Log.w(TAG, "Truncated snapshot", e);
+        } catch (IndexOutOfBoundsException e) {
+            Log.w(TAG, "Corrupt snapshot", e);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Corrupt snapshot", e);
+        } catch (UnsupportedEncodingException e) {
+            Log.w(TAG, "Corrupt snapshot", e);
+        }
+        return null;
+    }
+
+    private static MediaTrack readTrack(ByteBuffer buffer, int record, String[] strings) {
+        MediaTrack.Builder builder = new MediaTrack.Builder(buffer.getLong(record),
+                buffer.getInt(record + 8))
+                .setSubtype(buffer.getInt(record + 12))
+                .setName(string(strings, buffer.getInt(record + 16)));
+        String contentId = string(strings, buffer.getInt(record + 20));
+        if (contentId != null) {
+            builder.setContentId(contentId);
+        }
+        String contentType = string(strings, buffer.getInt(record + 24));
+        if (contentType != null) {
+            builder.setContentType(contentType);
+        }
+        String language = string(strings, buffer.getInt(record + 28));
+        if (language != null) {
+            builder.setLanguage(language);
+        }
+        return builder.build();
+    }
+
+    private static String string(String[] strings, int index) {
+        return (index < 0) ? null : strings[index];
+    }
+
+    private static String getString(MediaMetadata metadata, String key) {
+        return ((metadata != null) && metadata.containsKey(key)) ? metadata.getString(key) : null;
+    }
+
+    private static void putString(MediaMetadata metadata, String key, String[] strings,
+            int index) {
+        String value = string(strings, index);
+        if (value != null) {
+            metadata.putString(key, value);
+        }
+    }
+
+    /**
+     * Interns strings and lays them out as one UTF-8 blob.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> mIndexes = new HashMap<String, Integer>();
+        private final List<byte[]> mEncoded = new ArrayList<byte[]>();
+        private int mBlobSize;
+
+        int indexOf(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer index = mIndexes.get(value);
+            if (index == null) {
+                try {
+                    byte[] encoded = value.getBytes(UTF_8);
+                    index = mEncoded.size();
+                    mEncoded.add(encoded);
+                    mIndexes.put(value, index);
+                    mBlobSize += encoded.length;
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return index;
+        }
+
+        int size() {
+            return mEncoded.size();
+        }
+
+        int[] offsets() {
+            int[] offsets = new int[mEncoded.size() + 1];
+            for (int i = 0; i < mEncoded.size(); i++) {
+                offsets[i + 1] = offsets[i] + mEncoded.get(i).length;
+            }
+            return offsets;
+        }
+
+        byte[] toBlob() {
+            byte[] blob = new byte[mBlobSize];
+            int offset = 0;
+            for (byte[] encoded : mEncoded) {
+                System.arraycopy(encoded, 0, blob, offset, encoded.length);
+                offset += encoded.length;
+            }
+            return blob;
+        }
+    }
+}
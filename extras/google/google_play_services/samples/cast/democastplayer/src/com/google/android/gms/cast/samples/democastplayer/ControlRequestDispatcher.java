@@ -0,0 +1,255 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v7.media.MediaRouter;
+import android.support.v7.media.MediaRouter.RouteInfo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sends control requests to a route, coalescing the ones where only the latest value matters.
+ *
+ * Requests are sent in groups. A group has at most one request in flight; a request submitted
+ * while one is in flight waits, and replaces any request already waiting, which is dropped
+ * without being sent. Once a newer request has been submitted, the result of an older one in
+ * flight no longer matters and is not delivered. Requests without a group are sent straight
+ * away.
+ *
+ * A request that gets no reply within {@link #REQUEST_TIMEOUT_MS} fails with
+ * {@link #ERROR_TIMEOUT}, so that a lost reply can't hold up its group for good; a reply that
+ * turns up after that is ignored.
+ *
+ * The round-trip latency of every request is recorded per action. Must be used on the UI
+ * thread, where MediaRouter delivers its callbacks.
+ */
+public class ControlRequestDispatcher {
+    static final long REQUEST_TIMEOUT_MS = 10000;
+    static final String ERROR_TIMEOUT = "Request timed out";
+
+    private final Handler mHandler = new Handler();
+    private final Map<String, Group> mGroups = new HashMap<String, Group>();
+    private final Map<String, ActionStats> mStats = new TreeMap<String, ActionStats>();
+
+    /**
+     * Sends a request, or queues it behind the request in flight in its group.
+     *
+     * @param route The route to send the request to.
+     * @param group The coalescing group, or {@code null} to send the request right away.
+     * @param intent The request.
+     * @param callback The callback for the result, or {@code null}. Not called if the request is
+     *     dropped or superseded.
+     */
+    public void submit(RouteInfo route, String group, Intent intent,
+            MediaRouter.ControlRequestCallback callback) {
+        Request request = new Request(route, intent, callback);
+        statsFor(intent).mSubmitted++;
+        if (group == null) {
+            send(null, request);
+            return;
+        }
+        Group state = mGroups.get(group);
+        if (state == null) {
+            state = new Group();
+            mGroups.put(group, state);
+        }
+        request.mGeneration = ++state.mGeneration;
+        if (state.mInFlight == null) {
+            send(state, request);
+        } else {
+            if (state.mPending != null) {
+                statsFor(state.mPending.mIntent).mDropped++;
+            }
+            state.mPending = request;
+        }
+    }
+
+    /**
+     * Drops every waiting request, and ignores the results of those in flight, so the next
+     * request in each group is sent right away. Call when the route or session the requests were
+     * for goes away.
+     */
+    public void cancelAll() {
+        for (Group group : mGroups.values()) {
+            if (group.mPending != null) {
+                statsFor(group.mPending.mIntent).mDropped++;
+                group.mPending = null;
+            }
+            group.mInFlight = null;
+            group.mGeneration++;
+        }
+    }
+
+    /**
+     * @return The mean round-trip time of the requests for an action, in milliseconds.
+     */
+    public long getAverageLatencyMillis(String action) {
+        ActionStats stats = mStats.get(action);
+        return (stats == null) ? 0 : stats.averageLatency();
+    }
+
+    /**
+     * @return The number of requests for an action that were replaced before being sent.
+     */
+    public int getDroppedCount(String action) {
+        ActionStats stats = mStats.get(action);
+        return (stats == null) ? 0 : stats.mDropped;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ControlRequestDispatcher[");
+        boolean first = true;
+        for (Map.Entry<String, ActionStats> entry : mStats.entrySet()) {
+            if (!first) {
+                builder.append(' ');
+            }
+            first = false;
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.append(']').toString();
+    }
+
+    private void send(final Group group, final Request request) {
+        final ActionStats stats = statsFor(request.mIntent);
+        stats.mSent++;
+        if (group != null) {
+            group.mInFlight = request;
+        }
+        final long sentTime = SystemClock.elapsedRealtime();
+        request.mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                stats.mTimeouts++;
+                if (finish(group, request, stats, -1)) {
+                    request.mCallback.onError(ERROR_TIMEOUT, null);
+                }
+            }
+        };
+        mHandler.postDelayed(request.mTimeout, REQUEST_TIMEOUT_MS);
+        request.mRoute.sendControlRequest(request.mIntent,
+                new MediaRouter.ControlRequestCallback() {
+                    @Override
+                    public void onResult(Bundle data) {
+                        if (finish(group, request, stats, sentTime)) {
+                            request.mCallback.onResult(data);
+                        }
+                    }
+
+                    @Override
+                    public void onError(String error, Bundle data) {
+                        if (!request.mFinished) {
+                            stats.mErrors++;
+                        }
+                        if (finish(group, request, stats, sentTime)) {
+                            request.mCallback.onError(error, data);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Records a finished request and sends the one waiting behind it, if any. Only the first
+     * call for a request, the reply or the timeout, counts.
+     *
+     * @param sentTime When the request was sent, or -1 if it timed out.
+     * @return Whether the result should be delivered.
+     */
+    private boolean finish(Group group, Request request, ActionStats stats, long sentTime) {
+        if (request.mFinished) {
+            // The reply came after the timeout.
+            stats.mLate++;
+            return false;
+        }
+        request.mFinished = true;
+        mHandler.removeCallbacks(request.mTimeout);
+        if (sentTime >= 0) {
+            long latency = SystemClock.elapsedRealtime() - sentTime;
+            stats.mCompleted++;
+            stats.mLatencyMillis += latency;
+            stats.mMaxLatencyMillis = Math.max(stats.mMaxLatencyMillis, latency);
+        }
+
+        boolean current = true;
+        if (group != null) {
+            current = (request.mGeneration == group.mGeneration);
+            // After cancelAll(), another request may be in flight in the group; leave it be.
+            if (group.mInFlight == request) {
+                group.mInFlight = null;
+                if (group.mPending != null) {
+                    Request next = group.mPending;
+                    group.mPending = null;
+                    send(group, next);
+                }
+            }
+        }
+        if (!current) {
+            stats.mSuperseded++;
+        }
+        return current && (request.mCallback != null);
+    }
+
+    private ActionStats statsFor(Intent intent) {
+        String action = intent.getAction();
+        ActionStats stats = mStats.get(action);
+        if (stats == null) {
+            stats = new ActionStats();
+            mStats.put(action, stats);
+        }
+        return stats;
+    }
+
+    private static class Request {
+        final RouteInfo mRoute;
+        final Intent mIntent;
+        final MediaRouter.ControlRequestCallback mCallback;
+        int mGeneration;
+        Runnable mTimeout;
+        /** Set once the reply came or the request timed out. */
+        boolean mFinished;
+
+        Request(RouteInfo route, Intent intent, MediaRouter.ControlRequestCallback callback) {
+            mRoute = route;
+            mIntent = intent;
+            mCallback = callback;
+        }
+    }
+
+    private static class Group {
+        Request mInFlight;
+        Request mPending;
+        /** Bumped on every submission, so a result can tell whether it is still wanted. */
+        int mGeneration;
+    }
+
+    private static class ActionStats {
+        int mSubmitted;
+        int mSent;
+        int mCompleted;
+        int mErrors;
+        int mDropped;
+        int mSuperseded;
+        int mTimeouts;
+        int mLate;
+        long mLatencyMillis;
+        long mMaxLatencyMillis;
+
+        long averageLatency() {
+            return (mCompleted == 0) ? 0 : (mLatencyMillis / mCompleted);
+        }
+
+        @Override
+        public String toString() {
+            return "{submitted=" + mSubmitted + " sent=" + mSent + " dropped=" + mDropped
+                    + " superseded=" + mSuperseded + " errors=" + mErrors + " timeouts="
+                    + mTimeouts + " late=" + mLate + " avgLatencyMs="
+                    + averageLatency() + " maxLatencyMs=" + mMaxLatencyMillis + "}";
+        }
+    }
+}
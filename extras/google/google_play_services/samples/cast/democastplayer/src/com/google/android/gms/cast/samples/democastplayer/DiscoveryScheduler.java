@@ -0,0 +1,331 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.app.FragmentActivity;
+import android.support.v7.app.MediaRouteChooserDialogFragment;
+import android.support.v7.app.MediaRouteDialogFactory;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.support.v7.media.MediaRouter.RouteInfo;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides how hard MediaRouter looks for routes, instead of leaving discovery on for as long as
+ * the activity is started.
+ *
+ * An active scan runs while the route picker is showing, and for {@link #ACTIVE_SCAN_MS} on start
+ * if no route is known. Otherwise discovery is passive, in windows of {@link #PASSIVE_WINDOW_MS}
+ * separated by idle periods. The idle period starts at {@link #MIN_IDLE_MS} and doubles after
+ * every window in which no new route turned up, up to {@link #MAX_IDLE_MS}; a new route, or no
+ * route at all, brings it back to the minimum.
+ *
+ * The time spent scanning, and how long it took for a route to be found after a scan began or the
+ * picker opened, are recorded. Must be used on the UI thread.
+ */
+public class DiscoveryScheduler {
+    static final long ACTIVE_SCAN_MS = 10000;
+    static final long PASSIVE_WINDOW_MS = 5000;
+    static final long MIN_IDLE_MS = 10000;
+    static final long MAX_IDLE_MS = 5 * 60 * 1000;
+
+    private static final int STATE_STOPPED = 0;
+    private static final int STATE_ACTIVE = 1;
+    private static final int STATE_PASSIVE = 2;
+    private static final int STATE_IDLE = 3;
+    private static final String[] STATE_NAMES = {"stopped", "active", "passive", "idle"};
+
+    /**
+     * Implemented by activities that own a scheduler, so that the picker can find it.
+     */
+    public interface Provider {
+        DiscoveryScheduler getDiscoveryScheduler();
+    }
+
+    /**
+     * Creates picker dialogs that tell the activity's scheduler when they show and hide. Set it on
+     * the {@code MediaRouteActionProvider} of an activity that implements {@link Provider}.
+     */
+    public static class DialogFactory extends MediaRouteDialogFactory {
+        @Override
+        public MediaRouteChooserDialogFragment onCreateChooserDialogFragment() {
+            return new ChooserDialogFragment();
+        }
+    }
+
+    public static class ChooserDialogFragment extends MediaRouteChooserDialogFragment {
+        @Override
+        public void onStart() {
+            super.onStart();
+            DiscoveryScheduler scheduler = getScheduler(getActivity());
+            if (scheduler != null) {
+                scheduler.onPickerShown();
+            }
+        }
+
+        @Override
+        public void onStop() {
+            DiscoveryScheduler scheduler = getScheduler(getActivity());
+            if (scheduler != null) {
+                scheduler.onPickerHidden();
+            }
+            super.onStop();
+        }
+
+        private static DiscoveryScheduler getScheduler(FragmentActivity activity) {
+            return (activity instanceof Provider)
+                    ? ((Provider) activity).getDiscoveryScheduler() : null;
+        }
+    }
+
+    private final MediaRouter mMediaRouter;
+    private final MediaRouter.Callback mCallback = new RouterCallback();
+    private final Handler mHandler = new Handler();
+    private final Runnable mNextStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onStateTimeout();
+        }
+    };
+    /** The routes seen since {@link #start}, so that one that comes back isn't new. */
+    private final Set<String> mSeenRouteIds = new HashSet<String>();
+    private MediaRouteSelector mSelector;
+    private int mState = STATE_STOPPED;
+    private long mStateStartTime;
+    private long mIdleMillis = MIN_IDLE_MS;
+    private boolean mNewRouteSeen;
+    private boolean mPickerShown;
+    /** When the current scan began, or -1 once it has found a route. */
+    private long mScanStartTime = -1;
+    /** When the picker was shown, or -1 once it has a route to show. */
+    private long mPickerShownTime = -1;
+
+    private long mStartTime;
+    private long mStartedMillis;
+    private long mActiveMillis;
+    private long mPassiveMillis;
+    private int mBursts;
+    private int mWindows;
+    private int mRoutesFound;
+    private final Latency mActiveFoundLatency = new Latency();
+    private final Latency mPassiveFoundLatency = new Latency();
+    private final Latency mPickerLatency = new Latency();
+
+    public DiscoveryScheduler(MediaRouter mediaRouter) {
+        mMediaRouter = mediaRouter;
+    }
+
+    /**
+     * Starts looking for routes, restarting with the new selector if already started.
+     *
+     * @param selector The routes to look for.
+     */
+    public void start(MediaRouteSelector selector) {
+        stop();
+        mSelector = selector;
+        mStartTime = SystemClock.elapsedRealtime();
+        mSeenRouteIds.clear();
+        for (RouteInfo route : mMediaRouter.getRoutes()) {
+            if (matches(route)) {
+                mSeenRouteIds.add(route.getId());
+            }
+        }
+        mIdleMillis = MIN_IDLE_MS;
+        enterState((mPickerShown || mSeenRouteIds.isEmpty()) ? STATE_ACTIVE : STATE_PASSIVE);
+    }
+
+    public void stop() {
+        if (mState == STATE_STOPPED) {
+            return;
+        }
+        enterState(STATE_STOPPED);
+        mStartedMillis += SystemClock.elapsedRealtime() - mStartTime;
+    }
+
+    /**
+     * Scans actively until {@link #onPickerHidden}, as the user is waiting for routes.
+     */
+    public void onPickerShown() {
+        mPickerShown = true;
+        mPickerShownTime = SystemClock.elapsedRealtime();
+        if (isRouteAvailable()) {
+            mPickerLatency.add(0);
+            mPickerShownTime = -1;
+        }
+        if (mState != STATE_STOPPED) {
+            enterState(STATE_ACTIVE);
+        }
+    }
+
+    public void onPickerHidden() {
+        mPickerShown = false;
+        mPickerShownTime = -1;
+        if (mState == STATE_ACTIVE) {
+            enterState(STATE_PASSIVE);
+        }
+    }
+
+    /**
+     * @return The time spent scanning, actively or passively, in milliseconds.
+     */
+    public long getScanMillis() {
+        long now = SystemClock.elapsedRealtime();
+        return mActiveMillis + mPassiveMillis
+                + ((mState == STATE_ACTIVE) || (mState == STATE_PASSIVE)
+                        ? (now - mStateStartTime) : 0);
+    }
+
+    /**
+     * @return The mean time from the picker opening until it had a route to show, in
+     *     milliseconds.
+     */
+    public long getAveragePickerLatencyMillis() {
+        return mPickerLatency.average();
+    }
+
+    @Override
+    public String toString() {
+        long now = SystemClock.elapsedRealtime();
+        long startedMillis = mStartedMillis + ((mState != STATE_STOPPED) ? (now - mStartTime) : 0);
+        return "DiscoveryScheduler[state=" + STATE_NAMES[mState] + " idleMs=" + mIdleMillis
+                + " scanMs=" + getScanMillis() + "/" + startedMillis + " bursts=" + mBursts
+                + " windows=" + mWindows + " routesFound=" + mRoutesFound + " activeFound="
+                + mActiveFoundLatency + " passiveFound=" + mPassiveFoundLatency + " picker="
+                + mPickerLatency + "]";
+    }
+
+    private void enterState(int state) {
+        long now = SystemClock.elapsedRealtime();
+        if (mState == STATE_ACTIVE) {
+            mActiveMillis += now - mStateStartTime;
+        } else if (mState == STATE_PASSIVE) {
+            mPassiveMillis += now - mStateStartTime;
+        }
+        // Flags added to a registered callback are merged with its old ones, so re-register.
+        mMediaRouter.removeCallback(mCallback);
+        mHandler.removeCallbacks(mNextStateRunnable);
+        mState = state;
+        mStateStartTime = now;
+        mScanStartTime = -1;
+
+        switch (state) {
+            case STATE_ACTIVE:
+                mBursts++;
+                mScanStartTime = now;
+                mMediaRouter.addCallback(mSelector, mCallback,
+                        MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN
+                                | MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+                if (!mPickerShown) {
+                    mHandler.postDelayed(mNextStateRunnable, ACTIVE_SCAN_MS);
+                }
+                break;
+            case STATE_PASSIVE:
+                mWindows++;
+                mScanStartTime = now;
+                mNewRouteSeen = false;
+                mMediaRouter.addCallback(mSelector, mCallback,
+                        MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+                mHandler.postDelayed(mNextStateRunnable, PASSIVE_WINDOW_MS);
+                break;
+            case STATE_IDLE:
+                // Still registered, to hear about routes found for other apps.
+                mMediaRouter.addCallback(mSelector, mCallback, 0);
+                mHandler.postDelayed(mNextStateRunnable, mIdleMillis);
+                mIdleMillis = Math.min(mIdleMillis * 2, MAX_IDLE_MS);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onStateTimeout() {
+        if (mState == STATE_ACTIVE) {
+            enterState(STATE_PASSIVE);
+        } else if (mState == STATE_PASSIVE) {
+            if (mNewRouteSeen || !isRouteAvailable()) {
+                mIdleMillis = MIN_IDLE_MS;
+            }
+            enterState(STATE_IDLE);
+        } else if (mState == STATE_IDLE) {
+            enterState(STATE_PASSIVE);
+        }
+    }
+
+    private boolean matches(RouteInfo route) {
+        return !route.isDefault() && route.matchesSelector(mSelector);
+    }
+
+    private boolean isRouteAvailable() {
+        for (RouteInfo route : mMediaRouter.getRoutes()) {
+            if (matches(route)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onRouteAvailable(RouteInfo route) {
+        long now = SystemClock.elapsedRealtime();
+        if (mPickerShownTime >= 0) {
+            mPickerLatency.add(now - mPickerShownTime);
+            mPickerShownTime = -1;
+        }
+        if (!mSeenRouteIds.add(route.getId())) {
+            return;
+        }
+        mRoutesFound++;
+        mNewRouteSeen = true;
+        if (mScanStartTime >= 0) {
+            Latency latency = (mState == STATE_ACTIVE) ? mActiveFoundLatency : mPassiveFoundLatency;
+            latency.add(now - mScanStartTime);
+            mScanStartTime = -1;
+        }
+        if (mState == STATE_IDLE) {
+            // Found while another app was scanning; the route set is changing, so look again soon.
+            mIdleMillis = MIN_IDLE_MS;
+            enterState(STATE_IDLE);
+        }
+    }
+
+    private class RouterCallback extends MediaRouter.Callback {
+        @Override
+        public void onRouteAdded(MediaRouter router, RouteInfo route) {
+            if (matches(route)) {
+                onRouteAvailable(route);
+            }
+        }
+
+        @Override
+        public void onRouteChanged(MediaRouter router, RouteInfo route) {
+            // A route can start matching the selector once its description is known.
+            if (matches(route)) {
+                onRouteAvailable(route);
+            }
+        }
+    }
+
+    private static class Latency {
+        int mCount;
+        long mTotalMillis;
+        long mMaxMillis;
+
+        void add(long millis) {
+            mCount++;
+            mTotalMillis += millis;
+            mMaxMillis = Math.max(mMaxMillis, millis);
+        }
+
+        long average() {
+            return (mCount == 0) ? 0 : (mTotalMillis / mCount);
+        }
+
+        @Override
+        public String toString() {
+            return "{n=" + mCount + " avgMs=" + average() + " maxMs=" + mMaxMillis + "}";
+        }
+    }
+}
@@ -0,0 +1,276 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaQueueItem;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stand-in for a receiver application, which answers the queue messages of the media namespace
+ * the way the default media receiver does, so that queue handling can be exercised without a
+ * device. It keeps a real queue: items get IDs as they are added, and a {@link QueueModel} maps
+ * IDs back to positions.
+ *
+ * Only the queue messages and {@code GET_STATUS} are handled; anything else is an invalid
+ * request. Nothing is actually played. The {@code MEDIA_STATUS} sent in reply to a queue message
+ * lists the items by ID only; the reply to {@code GET_STATUS} has the whole items.
+ *
+ * Not thread safe; {@link LoopbackTransport} calls it on one thread.
+ */
+public class FakeCastReceiver {
+    public static final String MEDIA_NAMESPACE = "urn:x-cast:com.google.cast.media";
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_REQUEST_ID = "requestId";
+    private static final String KEY_MEDIA_SESSION_ID = "mediaSessionId";
+    private static final String KEY_ITEMS = "items";
+    private static final String KEY_ITEM_ID = "itemId";
+    private static final String KEY_ITEM_IDS = "itemIds";
+    private static final String KEY_INSERT_BEFORE = "insertBefore";
+    private static final String KEY_START_INDEX = "startIndex";
+    private static final String KEY_CURRENT_ITEM_ID = "currentItemId";
+    private static final String KEY_REPEAT_MODE = "repeatMode";
+
+    private static final String REASON_INVALID_COMMAND = "INVALID_COMMAND";
+    private static final String REASON_INVALID_PARAMS = "INVALID_PARAMS";
+    private static final String REASON_INVALID_MEDIA_SESSION_ID = "INVALID_MEDIA_SESSION_ID";
+
+    private final QueueModel mQueue = new QueueModel();
+    /** The items, by position, in step with {@link #mQueue}. */
+    private final List<JSONObject> mItems = new ArrayList<JSONObject>();
+    private int mNextItemId = 1;
+    private int mMediaSessionId;
+    private int mCurrentItemId = MediaQueueItem.INVALID_ITEM_ID;
+    private String mRepeatMode = "REPEAT_OFF";
+    private int mMessageCount;
+    private int mInvalidCount;
+
+    /**
+     * Handles a message from a sender.
+     *
+     * @param namespace The namespace the message was sent on.
+     * @param message The message, as JSON.
+     * @return The reply, or {@code null} if the message wasn't for the media namespace.
+     */
+    public String onMessage(String namespace, String message) {
+        if (!MEDIA_NAMESPACE.equals(namespace)) {
+            return null;
+        }
+        mMessageCount++;
+        long requestId = 0;
+        try {
+            JSONObject request = new JSONObject(message);
+            requestId = request.optLong(KEY_REQUEST_ID);
+            String type = request.getString(KEY_TYPE);
+            if ("GET_STATUS".equals(type)) {
+                return buildStatus(requestId, true);
+            }
+            if ("QUEUE_LOAD".equals(type)) {
+                return queueLoad(requestId, request);
+            }
+            if (!type.startsWith("QUEUE_")) {
+                return buildError(requestId, REASON_INVALID_COMMAND);
+            }
+            if ((mMediaSessionId == 0)
+                    || (request.optInt(KEY_MEDIA_SESSION_ID) != mMediaSessionId)) {
+                return buildError(requestId, REASON_INVALID_MEDIA_SESSION_ID);
+            }
+            if ("QUEUE_INSERT".equals(type)) {
+                return queueInsert(requestId, request);
+            } else if ("QUEUE_REMOVE".equals(type)) {
+                return queueRemove(requestId, request);
+            } else if ("QUEUE_REORDER".equals(type)) {
+                return queueReorder(requestId, request);
+            } else if ("QUEUE_UPDATE".equals(type)) {
+                return queueUpdate(requestId, request);
+            }
+            return buildError(requestId, REASON_INVALID_COMMAND);
+        } catch (JSONException e) {
+            return buildError(requestId, REASON_INVALID_PARAMS);
+        }
+    }
+
+    public int getQueueSize() {
+        return mQueue.size();
+    }
+
+    public int getCurrentItemId() {
+        return mCurrentItemId;
+    }
+
+    @Override
+    public String toString() {
+        return "FakeCastReceiver[session=" + mMediaSessionId + " items=" + mQueue.size()
+                + " current=" + mCurrentItemId + " messages=" + mMessageCount + " invalid="
+                + mInvalidCount + "]";
+    }
+
+    private String queueLoad(long requestId, JSONObject request) throws JSONException {
+        JSONArray items = request.getJSONArray(KEY_ITEMS);
+        int startIndex = request.optInt(KEY_START_INDEX, 0);
+        if ((items.length() == 0) || (startIndex < 0) || (startIndex >= items.length())) {
+            return buildError(requestId, REASON_INVALID_PARAMS);
+        }
+        mQueue.clear();
+        mItems.clear();
+        insertItems(items, 0);
+        mMediaSessionId++;
+        mCurrentItemId = mQueue.getItemId(startIndex);
+        mRepeatMode = request.optString(KEY_REPEAT_MODE, mRepeatMode);
+        return buildStatus(requestId, false);
+    }
+
+    private String queueInsert(long requestId, JSONObject request) throws JSONException {
+        JSONArray items = request.getJSONArray(KEY_ITEMS);
+        int position = insertPosition(request);
+        if ((position < 0) || (items.length() == 0)) {
+            return buildError(requestId, REASON_INVALID_PARAMS);
+        }
+        insertItems(items, position);
+        return buildStatus(requestId, false);
+    }
+
+    private String queueRemove(long requestId, JSONObject request) throws JSONException {
+        JSONArray itemIds = request.getJSONArray(KEY_ITEM_IDS);
+        for (int i = 0; i < itemIds.length(); i++) {
+            int position = mQueue.positionOf(itemIds.getInt(i));
+            if (position < 0) {
+                // Removed by someone else already.
+                continue;
+            }
+            boolean current = (mQueue.getItemId(position) == mCurrentItemId);
+            removeAt(position);
+            if (current) {
+                // Playback carries on with the item that followed, or stops at the end.
+                mCurrentItemId = (mQueue.size() == 0) ? MediaQueueItem.INVALID_ITEM_ID
+                        : mQueue.getItemId(Math.min(position, mQueue.size() - 1));
+            }
+        }
+        return buildStatus(requestId, false);
+    }
+
+    private String queueReorder(long requestId, JSONObject request) throws JSONException {
+        JSONArray itemIds = request.getJSONArray(KEY_ITEM_IDS);
+        int insertBefore = request.optInt(KEY_INSERT_BEFORE, MediaQueueItem.INVALID_ITEM_ID);
+        if (insertPosition(request) < 0) {
+            return buildError(requestId, REASON_INVALID_PARAMS);
+        }
+        // Check every ID before touching the queue, so a rejected request changes nothing.
+        int[] ids = new int[itemIds.length()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = itemIds.getInt(i);
+            if (ids[i] == insertBefore) {
+                return buildError(requestId, REASON_INVALID_PARAMS);
+            }
+        }
+        List<JSONObject> moved = new ArrayList<JSONObject>(ids.length);
+        for (int itemId : ids) {
+            int position = mQueue.positionOf(itemId);
+            if (position >= 0) {
+                moved.add(mItems.get(position));
+                removeAt(position);
+            }
+        }
+        int position = insertPosition(request);
+        for (JSONObject item : moved) {
+            mQueue.insert(position, item.getInt(KEY_ITEM_ID));
+            mItems.add(position, item);
+            position++;
+        }
+        return buildStatus(requestId, false);
+    }
+
+    /**
+     * Replaces the items given, and jumps to {@code currentItemId} if given, which is how
+     * {@code queueJumpToItem} is sent.
+     */
+    private String queueUpdate(long requestId, JSONObject request) throws JSONException {
+        if (request.has(KEY_CURRENT_ITEM_ID)) {
+            int currentItemId = request.getInt(KEY_CURRENT_ITEM_ID);
+            if (mQueue.positionOf(currentItemId) < 0) {
+                return buildError(requestId, REASON_INVALID_PARAMS);
+            }
+            mCurrentItemId = currentItemId;
+        }
+        JSONArray items = request.optJSONArray(KEY_ITEMS);
+        if (items != null) {
+            for (int i = 0; i < items.length(); i++) {
+                JSONObject item = items.getJSONObject(i);
+                int position = mQueue.positionOf(item.optInt(KEY_ITEM_ID,
+                        MediaQueueItem.INVALID_ITEM_ID));
+                if (position >= 0) {
+                    mItems.set(position, item);
+                }
+            }
+        }
+        mRepeatMode = request.optString(KEY_REPEAT_MODE, mRepeatMode);
+        return buildStatus(requestId, false);
+    }
+
+    /**
+     * @return The position {@code insertBefore} refers to: that of the item, the end of the queue
+     *     if there is none, or -1 if the item isn't in the queue.
+     */
+    private int insertPosition(JSONObject request) {
+        int insertBefore = request.optInt(KEY_INSERT_BEFORE, MediaQueueItem.INVALID_ITEM_ID);
+        if (insertBefore == MediaQueueItem.INVALID_ITEM_ID) {
+            return mQueue.size();
+        }
+        return mQueue.positionOf(insertBefore);
+    }
+
+    private void insertItems(JSONArray items, int position) throws JSONException {
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            int itemId = mNextItemId++;
+            item.put(KEY_ITEM_ID, itemId);
+            mQueue.insert(position, itemId);
+            mItems.add(position, item);
+            position++;
+        }
+    }
+
+    private void removeAt(int position) {
+        mQueue.remove(position);
+        mItems.remove(position);
+    }
+
+    private String buildStatus(long requestId, boolean fullItems) throws JSONException {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < mQueue.size(); i++) {
+            if (fullItems) {
+                items.put(mItems.get(i));
+            } else {
+                items.put(new JSONObject().put(KEY_ITEM_ID, mQueue.getItemId(i)));
+            }
+        }
+        JSONObject status = new JSONObject();
+        status.put(KEY_MEDIA_SESSION_ID, mMediaSessionId);
+        status.put("playerState",
+                (mCurrentItemId == MediaQueueItem.INVALID_ITEM_ID) ? "IDLE" : "PLAYING");
+        if (mCurrentItemId != MediaQueueItem.INVALID_ITEM_ID) {
+            status.put(KEY_CURRENT_ITEM_ID, mCurrentItemId);
+        }
+        status.put(KEY_REPEAT_MODE, mRepeatMode);
+        status.put(KEY_ITEMS, items);
+
+        JSONObject reply = new JSONObject();
+        reply.put(KEY_TYPE, "MEDIA_STATUS");
+        reply.put(KEY_REQUEST_ID, requestId);
+        reply.put("status", new JSONArray().put(status));
+        return reply.toString();
+    }
+
+    private String buildError(long requestId, String reason) {
+        mInvalidCount++;
+        // Built by hand, as it can't fail.
+        return "{\"" + KEY_TYPE + "\":\"INVALID_REQUEST\",\"" + KEY_REQUEST_ID + "\":" + requestId
+                + ",\"reason\":\"" + reason + "\"}";
+    }
+}
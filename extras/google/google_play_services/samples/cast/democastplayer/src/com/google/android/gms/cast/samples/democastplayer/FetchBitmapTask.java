@@ -2,41 +2,64 @@
 
 package com.google.android.gms.cast.samples.democastplayer;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 /**
  * An AsyncTask to fetch an image over HTTP and scale it to a desired size.
  */
 public abstract class FetchBitmapTask extends AsyncTask<Uri, Void, Bitmap> {
+    private static final String TAG = "FetchBitmapTask";
+
+    private final BitmapCache mCache;
     private final int mPreferredWidth;
     private final int mPreferredHeight;
 
     /**
-     * Constructs a new FetchBitmapTask that will do scaling.
+     * Constructs a new FetchBitmapTask that will do scaling and go through a cache.
      *
+     * @param cache The cache to load the image through, or {@code null} to always fetch it.
      * @param preferredWidth The preferred image width.
      * @param preferredHeight The preferred image height.
      */
-    public FetchBitmapTask(int preferredWidth, int preferredHeight) {
+    public FetchBitmapTask(BitmapCache cache, int preferredWidth, int preferredHeight) {
+        mCache = cache;
         mPreferredWidth = preferredWidth;
         mPreferredHeight = preferredHeight;
     }
 
+    /**
+     * Constructs a new FetchBitmapTask that will go through a cache.
+     *
+     * @param cache The cache to load the image through, or {@code null} to always fetch it.
+     */
+    public FetchBitmapTask(BitmapCache cache) {
+        this(cache, 0, 0);
+    }
+
+    /**
+     * Constructs a new FetchBitmapTask that will do scaling.
+     *
+     * @param preferredWidth The preferred image width.
+     * @param preferredHeight The preferred image height.
+     */
+    public FetchBitmapTask(int preferredWidth, int preferredHeight) {
+        this(null, preferredWidth, preferredHeight);
+    }
+
     /**
      * Constructs a new FetchBitmapTask.
      */
     public FetchBitmapTask() {
-        this(0, 0);
+        this(null, 0, 0);
     }
 
     @Override
@@ -45,48 +68,153 @@ public abstract class FetchBitmapTask extends AsyncTask<Uri, Void, Bitmap> {
             return null;
         }
 
-        Bitmap bitmap = null;
-        URL url = null;
+        if (mCache != null) {
+            return mCache.get(uris[0], mPreferredWidth, mPreferredHeight);
+        }
+
         try {
-            url = new URL(uris[0].toString());
-        } catch (MalformedURLException e) {
+            byte[] data = BitmapCache.download(uris[0]);
+            return (data != null) ? decodeBitmap(data, mPreferredWidth, mPreferredHeight) : null;
+        } catch (IOException e) { /* ignore */
             return null;
         }
-        HttpURLConnection urlConnection = null;
+    }
+
+    @Override
+    protected void onCancelled(Bitmap bitmap) {
+        // Nobody is going to display the bitmap, so give back the reference the cache took.
+        if (mCache != null) {
+            mCache.release(bitmap);
+        }
+    }
+
+    /**
+     * Decodes an encoded image and, if a preferred size is given, scales it to that size. The
+     * image bounds are read first so the decoder can subsample large images down to roughly the
+     * size we need, instead of decoding at full resolution and scaling afterwards.
+     *
+     * @return The bitmap, or {@code null} if the data could not be decoded.
+     */
+    static Bitmap decodeBitmap(byte[] data, int preferredWidth, int preferredHeight) {
+        return decodeBitmap(data, preferredWidth, preferredHeight, null);
+    }
+
+    /**
+     * Like {@link #decodeBitmap(byte[], int, int)}, but decodes into a bitmap from the pool when
+     * one fits, and returns the intermediate bitmap left over from scaling to the pool.
+     *
+     * @param pool The pool to take bitmaps from and return them to, or {@code null}.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Bitmap decodeBitmap(byte[] data, int preferredWidth, int preferredHeight,
+            BitmapPool pool) {
+        long startTime = SystemClock.elapsedRealtime();
+        boolean scale = (preferredWidth > 0) && (preferredHeight > 0);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (scale) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+                return null;
+            }
+            options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight,
+                    preferredWidth, preferredHeight);
+            options.inJustDecodeBounds = false;
+        }
+
+        boolean reused = false;
+        if ((pool != null) && BitmapPool.isSupported()) {
+            // Only mutable bitmaps can be pooled once we are done with them.
+            options.inMutable = true;
+            if (scale) {
+                int sampleSize = Math.max(1, options.inSampleSize);
+                int width = (options.outWidth + sampleSize - 1) / sampleSize;
+                int height = (options.outHeight + sampleSize - 1) / sampleSize;
+                options.inBitmap = pool.get(width, height, Bitmap.Config.ARGB_8888, sampleSize);
+                reused = (options.inBitmap != null);
+            }
+        }
+
+        Bitmap bitmap;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoInput(true);
-
-            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                InputStream stream = new BufferedInputStream(urlConnection.getInputStream());
-                bitmap = BitmapFactory.decodeStream(stream);
-                if ((mPreferredWidth > 0) && (mPreferredHeight > 0)) {
-                    bitmap = scaleBitmap(bitmap);
-                }
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                // Not about reuse; the data can't be decoded.
+                Log.w(TAG, "Failed to decode bitmap", e);
+                return null;
             }
-        } catch (IOException e) { /* ignore */
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // The decoder turned down the bitmap we offered; decode into a fresh one.
+            Log.w(TAG, "inBitmap rejected", e);
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            reused = false;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (bitmap == null) {
+            if (options.inBitmap != null) {
+                pool.put(options.inBitmap);
+            }
+            return null;
+        }
+        long decodedBytes = bitmap.getRowBytes() * bitmap.getHeight();
+        long peakBytes = decodedBytes;
+
+        if (scale) {
+            Bitmap scaled = scaleBitmap(bitmap, preferredWidth, preferredHeight);
+            if (scaled != bitmap) {
+                peakBytes += scaled.getRowBytes() * scaled.getHeight();
+                if (pool != null) {
+                    pool.put(bitmap);
+                } else {
+                    bitmap.recycle();
+                }
+                bitmap = scaled;
             }
         }
 
+        Log.d(TAG, "decoded " + options.outWidth + "x" + options.outHeight
+                + " (sample " + Math.max(1, options.inSampleSize)
+                + (reused ? ", reused" : "") + ") to "
+                + bitmap.getWidth() + "x" + bitmap.getHeight() + " in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms, peak " + peakBytes
+                + " bytes");
         return bitmap;
     }
 
+    /**
+     * Returns the largest power-of-two sample size that still leaves the decoded image at
+     * least as large as the size {@link #scaleBitmap} will produce.
+     */
+    static int calculateSampleSize(int width, int height, int preferredWidth,
+            int preferredHeight) {
+        float scaleFactor = Math.min((float) preferredWidth / width,
+                (float) preferredHeight / height);
+        int finalWidth = (int) ((width * scaleFactor) + 0.5f);
+        int finalHeight = (int) ((height * scaleFactor) + 0.5f);
+
+        int sampleSize = 1;
+        while (((width / (sampleSize * 2)) >= finalWidth)
+                && ((height / (sampleSize * 2)) >= finalHeight)) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
     /*
      * Scales the bitmap to the preferred width and height.
      *
      * @param bitmap The bitmap to scale.
      * @return The scaled bitmap.
      */
-    private Bitmap scaleBitmap(Bitmap bitmap) {
+    private static Bitmap scaleBitmap(Bitmap bitmap, int preferredWidth, int preferredHeight) {
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
 
         // Calculate deltas.
-        int dw = width - mPreferredWidth;
-        int dh = height - mPreferredHeight;
+        int dw = width - preferredWidth;
+        int dh = height - preferredHeight;
 
         if ((dw == 0) && (dh == 0)) {
             return bitmap;
@@ -95,13 +223,13 @@ public abstract class FetchBitmapTask extends AsyncTask<Uri, Void, Bitmap> {
         float scaleFactor = 0.0f;
         if ((dw > 0) || (dh > 0)) {
             // Icon is too big; scale down.
-            float scaleWidth = (float) mPreferredWidth / width;
-            float scaleHeight = (float) mPreferredHeight / height;
+            float scaleWidth = (float) preferredWidth / width;
+            float scaleHeight = (float) preferredHeight / height;
             scaleFactor = Math.min(scaleHeight, scaleWidth);
         } else {
             // Icon is too small; scale up.
-            float scaleWidth = width / (float) mPreferredWidth;
-            float scaleHeight = height / (float) mPreferredHeight;
+            float scaleWidth = width / (float) preferredWidth;
+            float scaleHeight = height / (float) preferredHeight;
             scaleFactor = Math.min(scaleHeight, scaleWidth);
         }
 
@@ -5,15 +5,22 @@ package com.google.android.gms.cast.samples.democastplayer;
 import android.content.DialogInterface;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.support.v4.app.DialogFragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.ProgressBar;
+import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -23,13 +30,21 @@ import java.util.List;
  * @param <T> The type of object being listed.
  */
 public abstract class ListSelectionDialog<T> extends DialogFragment {
+    private static final String TAG = "ListSelectionDialog";
+
     private final String mTitle;
     private ListView mListView;
     private ArrayAdapter<T> mListAdapter;
     private LoadListTask mLoadListTask;
     private ProgressBar mProgressBar;
-    private View mEmptyView;
+    private TextView mEmptyView;
     private boolean mListLoaded;
+    private final List<T> mItems = new ArrayList<T>();
+    private EditText mFilterView;
+    private String mFilter = "";
+    private long mLoadStartTime;
+    private long mTimeToFirstItem = -1;
+    private long mLoadTime = -1;
 
     public ListSelectionDialog(String title) {
         mTitle = title;
@@ -65,10 +80,30 @@ public abstract class ListSelectionDialog<T> extends DialogFragment {
             });
 
         mProgressBar = (ProgressBar) view.findViewById(R.id.progress_bar);
-        mEmptyView = view.findViewById(R.id.empty);
+        mEmptyView = (TextView) view.findViewById(R.id.empty);
 
         mListView.setEmptyView(mProgressBar);
 
+        mFilterView = (EditText) view.findViewById(R.id.filter);
+        if (isFilterable()) {
+            mFilterView.setVisibility(View.VISIBLE);
+            mFilterView.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                }
+
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {
+                }
+
+                @Override
+                public void afterTextChanged(Editable s) {
+                    mFilter = s.toString().trim();
+                    refreshAdapter();
+                }
+            });
+        }
+
         return view;
     }
 
@@ -76,10 +111,18 @@ public abstract class ListSelectionDialog<T> extends DialogFragment {
     public void onStart() {
         super.onStart();
         if (!mListLoaded) {
+            // Drop whatever an earlier load that was cancelled part way had shown, so the new
+            // load's chunks aren't appended after it.
+            mItems.clear();
+            mListAdapter.clear();
+            mEmptyView.setText(R.string.list_empty);
             mProgressBar.setVisibility(View.VISIBLE);
             mListView.setEmptyView(mProgressBar);
+            mLoadStartTime = SystemClock.elapsedRealtime();
+            mTimeToFirstItem = -1;
+            mLoadTime = -1;
             mLoadListTask = new LoadListTask();
-            mLoadListTask.execute();
+            TaskExecutor.getInstance().execute(mLoadListTask, TaskExecutor.Lane.CATALOG, this);
         } else {
             mListView.setAdapter(mListAdapter);
         }
@@ -87,10 +130,8 @@ public abstract class ListSelectionDialog<T> extends DialogFragment {
 
     @Override
     public void onStop() {
-        if (mLoadListTask != null) {
-            mLoadListTask.cancel(false);
-            mLoadListTask = null;
-        }
+        TaskExecutor.getInstance().cancelAll(this);
+        mLoadListTask = null;
 
         super.onStop();
     }
@@ -103,29 +144,152 @@ public abstract class ListSelectionDialog<T> extends DialogFragment {
 
     public void invalidateData() {
         mListLoaded = false;
+        mItems.clear();
+        mListAdapter.clear();
+    }
+
+    /**
+     * May be called from {@link #loadItems} to show a provisional list, such as a cached one,
+     * while the final one is still loading.
+     */
+    protected final void publishItems(List<T> items) {
+        LoadListTask task = mLoadListTask;
+        if (task != null) {
+            task.publish(items, false);
+        }
+    }
+
+    /**
+     * May be called from {@link #loadItems} to show items as they are parsed. Each chunk is
+     * appended to what is shown; {@link #loadItems} should still return the whole list.
+     */
+    protected final void appendItems(List<T> chunk) {
+        LoadListTask task = mLoadListTask;
+        if (task != null) {
+            task.publish(chunk, true);
+        }
+    }
+
+    /**
+     * @return How long the last load took to show its first items, in milliseconds, or -1.
+     */
+    public long getTimeToFirstItemMillis() {
+        return mTimeToFirstItem;
+    }
+
+    /**
+     * @return How long the last load took in total, in milliseconds, or -1.
+     */
+    public long getLoadTimeMillis() {
+        return mLoadTime;
+    }
+
+    private void showItems(List<T> items, boolean append) {
+        if (!append) {
+            mItems.clear();
+        }
+        if (items != null) {
+            mItems.addAll(items);
+        }
+        if (mFilter.length() > 0) {
+            refreshAdapter();
+        } else {
+            if (!append) {
+                mListAdapter.clear();
+            }
+            addToAdapter(items);
+        }
+        if ((mTimeToFirstItem < 0) && !mListAdapter.isEmpty()) {
+            mTimeToFirstItem = SystemClock.elapsedRealtime() - mLoadStartTime;
+            Log.d(TAG, "first items shown after " + mTimeToFirstItem + "ms");
+        }
+        mProgressBar.setVisibility(View.GONE);
+        mListView.setEmptyView(mEmptyView);
+        if (mListView.getAdapter() != mListAdapter) {
+            mListView.setAdapter(mListAdapter);
+        }
+    }
+
+    /**
+     * Fills the adapter with the items that pass the filter.
+     */
+    private void refreshAdapter() {
         mListAdapter.clear();
+        addToAdapter((mFilter.length() > 0) ? filterItems(mItems, mFilter) : mItems);
     }
 
-    private class LoadListTask extends AsyncTask<Void, Void, List<T>> {
+    private void addToAdapter(List<T> items) {
+        if (items != null) {
+            // Notify once per chunk rather than once per item.
+            mListAdapter.setNotifyOnChange(false);
+            for (T item : items) {
+                mListAdapter.add(item);
+            }
+            mListAdapter.notifyDataSetChanged();
+        }
+    }
+
+    private class Update {
+        final List<T> mItems;
+        final boolean mAppend;
+
+        Update(List<T> items, boolean append) {
+            mItems = items;
+            mAppend = append;
+        }
+    }
+
+    private class LoadListTask extends AsyncTask<Void, Update, List<T>> {
+        private List<T> mPublished;
+        private int mAppended;
 
         @Override
         protected List<T> doInBackground(Void... params) {
             return loadItems();
         }
 
+        void publish(List<T> items, boolean append) {
+            publishProgress(new Update(items, append));
+        }
+
         @Override
-        protected void onPostExecute(List<T> result) {
-            mListLoaded = true;
-            if (result != null) {
-                for (T item : result) {
-                    mListAdapter.add(item);
+        protected void onProgressUpdate(Update... updates) {
+            for (Update update : updates) {
+                if (update.mAppend) {
+                    mAppended += update.mItems.size();
+                } else {
+                    mPublished = update.mItems;
+                    mAppended = 0;
                 }
+                showItems(update.mItems, update.mAppend);
             }
-            mProgressBar.setVisibility(View.GONE);
-            mListView.setEmptyView(mEmptyView);
-            mListView.setAdapter(mListAdapter);
+        }
 
+        @Override
+        protected void onPostExecute(List<T> result) {
             mLoadListTask = null;
+            if (result == null) {
+                // The load failed, possibly part way through; anything appended is a truncated
+                // list. Show the failure and load again next time.
+                showItems(null, false);
+                mEmptyView.setText(R.string.list_load_failed);
+                Log.w(TAG, "load failed after " + mAppended + " items");
+                return;
+            }
+            mListLoaded = true;
+            if (mAppended > 0) {
+                // Most of the list is already shown; add whatever wasn't appended.
+                if (result.size() > mAppended) {
+                    showItems(result.subList(mAppended, result.size()), true);
+                } else if (mFilter.length() > 0) {
+                    // filterItems may only have covered part of the list until now.
+                    refreshAdapter();
+                }
+            } else if (result != mPublished) {
+                showItems(result, false);
+            }
+            mLoadTime = SystemClock.elapsedRealtime() - mLoadStartTime;
+            Log.d(TAG, "loaded " + mListAdapter.getCount() + " items in " + mLoadTime + "ms");
         }
 
         @Override
@@ -141,10 +305,32 @@ public abstract class ListSelectionDialog<T> extends DialogFragment {
     protected abstract ArrayAdapter<T> buildAdapter();
 
     /**
-     * Called from an async task to load the list of items to be displayed.
+     * Called from an async task to load the list of items to be displayed. Implementations may
+     * call {@link #publishItems} to show a provisional list first, or {@link #appendItems} to
+     * show the list as it loads.
      */
     protected abstract List<T> loadItems();
 
+    /**
+     * @return true to show a filter box above the list, backed by {@link #filterItems}.
+     */
+    protected boolean isFilterable() {
+        return false;
+    }
+
+    /**
+     * Called on the UI thread, on every change to the filter box, as items arrive and once they
+     * have all loaded, to pick the items to show. Must not do work proportional to the whole
+     * list.
+     *
+     * @param items All the items loaded so far.
+     * @param query The trimmed, non-empty text in the filter box.
+     * @return The items to show, in order.
+     */
+    protected List<T> filterItems(List<T> items, String query) {
+        return items;
+    }
+
     /**
      * Called when the user selects an item.
      */
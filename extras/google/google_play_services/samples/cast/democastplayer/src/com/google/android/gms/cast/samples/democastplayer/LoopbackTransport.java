@@ -0,0 +1,74 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Carries namespace messages between a sender and a {@link FakeCastReceiver} in the same
+ * process, in place of the connection to a device. Messages are handled one at a time, in the
+ * order they were sent, on a thread of the transport's own, and each reply is passed to the
+ * listener on that thread.
+ */
+class LoopbackTransport {
+    /** Queued to stop the receiver thread once the messages ahead of it are handled. */
+    private static final String[] STOP = new String[0];
+
+    /**
+     * Receives the receiver's replies.
+     */
+    public interface MessageListener {
+        void onMessageReceived(String namespace, String message);
+    }
+
+    private final FakeCastReceiver mReceiver;
+    private final MessageListener mListener;
+    private final BlockingQueue<String[]> mMessages = new LinkedBlockingQueue<String[]>();
+    private Thread mThread;
+
+    public LoopbackTransport(FakeCastReceiver receiver, MessageListener listener) {
+        mReceiver = receiver;
+        mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread("LoopbackTransport") {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        String[] message = mMessages.take();
+                        if (message == STOP) {
+                            return;
+                        }
+                        String reply = mReceiver.onMessage(message[0], message[1]);
+                        if (reply != null) {
+                            mListener.onMessageReceived(message[0], reply);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Stopped.
+                }
+            }
+        };
+        mThread.start();
+    }
+
+    /**
+     * Stops the receiver thread once the messages already sent are handled.
+     */
+    public synchronized void stop() {
+        if (mThread != null) {
+            mMessages.add(STOP);
+            mThread = null;
+        }
+    }
+
+    public void sendMessage(String namespace, String message) {
+        mMessages.add(new String[] {namespace, message});
+    }
+}
@@ -0,0 +1,160 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latency and outcome counts of the media operations sent to the receiver, per operation. An
+ * operation is timed from when its {@code PendingResult} is issued until its result arrives.
+ *
+ * Latencies go into a histogram with fixed buckets, so percentiles are reported as the upper
+ * bound of the bucket they fall in.
+ */
+public class MediaOperationStats {
+    /** Upper bounds of the histogram buckets, in milliseconds; the last bucket is unbounded. */
+    private static final long[] BUCKET_BOUNDS_MS = {50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private static MediaOperationStats sInstance;
+
+    private final Map<String, Operation> mOperations = new TreeMap<String, Operation>();
+
+    public static synchronized MediaOperationStats getInstance() {
+        if (sInstance == null) {
+            sInstance = new MediaOperationStats();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Records that an operation was issued.
+     *
+     * @return The time it was issued, to pass to {@link #end}.
+     */
+    public synchronized long begin(String operation) {
+        operationFor(operation).mInFlight++;
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records the result of an operation.
+     *
+     * @param operation The operation, as passed to {@link #begin}.
+     * @param startTime The time returned by {@link #begin}.
+     * @param success Whether the operation succeeded.
+     */
+    public synchronized void end(String operation, long startTime, boolean success) {
+        long latency = SystemClock.elapsedRealtime() - startTime;
+        Operation stats = operationFor(operation);
+        stats.mInFlight = Math.max(0, stats.mInFlight - 1);
+        if (success) {
+            stats.mSucceeded++;
+        } else {
+            stats.mFailed++;
+        }
+        int bucket = 0;
+        while ((bucket < BUCKET_BOUNDS_MS.length) && (latency > BUCKET_BOUNDS_MS[bucket])) {
+            bucket++;
+        }
+        stats.mBuckets[bucket]++;
+        stats.mTotalMillis += latency;
+        stats.mMaxMillis = Math.max(stats.mMaxMillis, latency);
+    }
+
+    public synchronized void reset() {
+        mOperations.clear();
+    }
+
+    /**
+     * Writes a table of every operation seen: in-flight, succeeded and failed counts, mean,
+     * median, 90th percentile and maximum latency, and the histogram.
+     */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.print("Media operations (latency in ms; histogram buckets <=");
+        for (long bound : BUCKET_BOUNDS_MS) {
+            writer.print(' ');
+            writer.print(bound);
+        }
+        writer.println(" >):");
+        if (mOperations.isEmpty()) {
+            writer.print(prefix);
+            writer.println("  none");
+        }
+        for (Map.Entry<String, Operation> entry : mOperations.entrySet()) {
+            Operation stats = entry.getValue();
+            int count = stats.count();
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(entry.getKey());
+            writer.print(": inFlight=" + stats.mInFlight + " ok=" + stats.mSucceeded
+                    + " failed=" + stats.mFailed);
+            if (count > 0) {
+                writer.print(" mean=" + (stats.mTotalMillis / count) + " p50<="
+                        + stats.percentileBound(0.5) + " p90<=" + stats.percentileBound(0.9)
+                        + " max=" + stats.mMaxMillis);
+            }
+            writer.println();
+            writer.print(prefix);
+            writer.print("    [");
+            for (int i = 0; i < stats.mBuckets.length; i++) {
+                if (i > 0) {
+                    writer.print(' ');
+                }
+                writer.print(stats.mBuckets[i]);
+            }
+            writer.println("]");
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        dump("", new PrintWriter(out));
+        return out.toString();
+    }
+
+    private Operation operationFor(String operation) {
+        Operation stats = mOperations.get(operation);
+        if (stats == null) {
+            stats = new Operation();
+            mOperations.put(operation, stats);
+        }
+        return stats;
+    }
+
+    private static class Operation {
+        int mInFlight;
+        int mSucceeded;
+        int mFailed;
+        long mTotalMillis;
+        long mMaxMillis;
+        final int[] mBuckets = new int[BUCKET_BOUNDS_MS.length + 1];
+
+        int count() {
+            return mSucceeded + mFailed;
+        }
+
+        /**
+         * @return The upper bound of the bucket holding the given fraction of results, or the
+         *     maximum if that is the unbounded bucket.
+         */
+        long percentileBound(double fraction) {
+            int target = (int) Math.ceil(count() * fraction);
+            int seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= target) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return mMaxMillis;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.ActionBarActivity;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Debug screen showing the {@link MediaOperationStats}, refreshed while it is visible.
+ */
+public class MediaOperationStatsActivity extends ActionBarActivity {
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private TextView mStatsTextView;
+    private Handler mHandler;
+    private Runnable mRefreshRunnable;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.media_operation_stats_activity);
+        ActionBar actionBar = getSupportActionBar();
+        actionBar.setDisplayHomeAsUpEnabled(true);
+        actionBar.setTitle(R.string.media_operation_stats_activity_title);
+
+        mStatsTextView = (TextView) findViewById(R.id.stats_text);
+        Button resetButton = (Button) findViewById(R.id.reset_button);
+        resetButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                MediaOperationStats.getInstance().reset();
+                refresh();
+            }
+        });
+
+        mHandler = new Handler();
+        mRefreshRunnable = new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+                mHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+            }
+        };
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mRefreshRunnable.run();
+    }
+
+    @Override
+    protected void onPause() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        super.onPause();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private void refresh() {
+        mStatsTextView.setText(MediaOperationStats.getInstance().toString());
+    }
+}
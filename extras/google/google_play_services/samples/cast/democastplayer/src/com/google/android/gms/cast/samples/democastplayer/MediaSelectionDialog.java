@@ -12,6 +12,7 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -19,11 +20,12 @@ import android.util.Log;
 import android.util.Xml;
 import android.widget.ArrayAdapter;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 abstract class MediaSelectionDialog extends ListSelectionDialog<MediaInfo> {
@@ -60,11 +62,20 @@ abstract class MediaSelectionDialog extends ListSelectionDialog<MediaInfo> {
     private static final String TRACK_SUBTYPE_DESCRIPTIONS = "descriptions";
     private static final String TRACK_SUBTYPE_CHAPTERS = "chapters";
     private static final String TRACK_SUBTYPE_METADATA = "metadata";
-    private static final String FILE_FORMAT_VERSION = "3";
+    static final String FILE_FORMAT_VERSION = "3";
+
+    private static final int MAX_CHUNK_SIZE = 256;
+    private static final int MAX_SEARCH_RESULTS = 500;
+    private static final long MAX_CHUNK_DELAY_MS = 100;
 
     private static final String TAG = "MediaSelectionDialog";
 
     private final Context mContext;
+    /**
+     * Index over the list loaded last, or over a prefix of it while it streams in. Only ever
+     * built off the UI thread.
+     */
+    private volatile CatalogSearchIndex mSearchIndex;
 
     public MediaSelectionDialog(Context context) {
         super(context.getString(R.string.select_media_title));
@@ -78,41 +89,207 @@ abstract class MediaSelectionDialog extends ListSelectionDialog<MediaInfo> {
 
     @Override
     protected List<MediaInfo> loadItems() {
+        List<MediaInfo> list = loadCatalog();
+        if (list != null) {
+            indexItems(list);
+        }
+        return list;
+    }
+
+    @Override
+    public void invalidateData() {
+        super.invalidateData();
+        mSearchIndex = null;
+    }
+
+    /**
+     * Builds the search index over {@code list}, unless it is already indexed. Called off the UI
+     * thread, before the list is shown, so the filter box finds the index ready.
+     *
+     * @param list The items; must not be modified afterwards.
+     */
+    private void indexItems(List<MediaInfo> list) {
+        CatalogSearchIndex index = mSearchIndex;
+        if ((index != null) && (index.getItems() == list)) {
+            return;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        mSearchIndex = new CatalogSearchIndex(list);
+        Log.d(TAG, "indexed " + list.size() + " items in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms");
+    }
+
+    @Override
+    protected boolean isFilterable() {
+        return true;
+    }
+
+    @Override
+    protected List<MediaInfo> filterItems(List<MediaInfo> items, String query) {
+        // Never index here, on the UI thread. While the list streams in, the index covers the
+        // items up to the last time the list doubled, and only those are searched; the search
+        // is redone as each chunk arrives and once loading finishes.
+        CatalogSearchIndex index = mSearchIndex;
+        if ((index == null) || !isPrefixOf(index.getItems(), items)) {
+            return Collections.emptyList();
+        }
+        long startTime = System.nanoTime();
+        List<MediaInfo> result = index.search(query, MAX_SEARCH_RESULTS);
+        Log.d(TAG, "search \"" + query + "\": " + result.size() + " matches in "
+                + ((System.nanoTime() - startTime) / 1000) + "us");
+        return result;
+    }
+
+    /**
+     * @return Whether {@code items} starts with the very items in {@code indexed}. Shown items
+     *     are only ever appended to or replaced with another list's, so checking the ends of the
+     *     prefix is enough.
+     */
+    private static boolean isPrefixOf(List<MediaInfo> indexed, List<MediaInfo> items) {
+        int size = indexed.size();
+        if (size > items.size()) {
+            return false;
+        }
+        return (size == 0) || ((indexed.get(0) == items.get(0))
+                && (indexed.get(size - 1) == items.get(size - 1)));
+    }
+
+    private List<MediaInfo> loadCatalog() {
         String mediaListUrl = PreferenceManager.getDefaultSharedPreferences(
                 mContext.getApplicationContext()).getString(AppConstants.PREF_KEY_MEDIA_URL,
                 mContext.getString(R.string.media_list_url));
 
-        Log.d(TAG, "fetching the media from " + mediaListUrl);
-        List<MediaInfo> list = null;
+        if (TextUtils.isEmpty(mediaListUrl)) {
+            try {
+                List<MediaInfo> list = new ArrayList<MediaInfo>();
+                readFile(getResources().getXml(R.xml.media), list, null);
+                return list;
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read built-in media list", e);
+            } catch (XmlPullParserException e) {
+                Log.w(TAG, "Failed to read built-in media list", e);
+            }
+            return null;
+        }
+
+        // Show what we have right away, then revalidate it with the server.
+        CatalogCache cache = CatalogCache.getInstance(mContext);
+        CatalogCache.Entry cached = cache.getCached(mediaListUrl);
+        List<MediaInfo> cachedList = (cached != null) ? parseEntry(cache, cached) : null;
+        if (cachedList != null) {
+            indexItems(cachedList);
+            publishItems(cachedList);
+        } else if (cached != null) {
+            // It doesn't parse; fetch it afresh rather than let a 304 keep it.
+            cache.invalidate(mediaListUrl);
+            cached = null;
+        }
 
+        Log.d(TAG, "fetching the media from " + mediaListUrl);
         try {
-            XmlPullParser parser;
-            if (!TextUtils.isEmpty(mediaListUrl)) {
-                URL url = new URL(mediaListUrl);
-                URLConnection connection = url.openConnection();
-
-                parser = Xml.newPullParser();
-                parser.setInput(connection.getInputStream(), connection.getContentEncoding());
-                parser.nextTag();
-            } else {
-                parser = getResources().getXml(R.xml.media);
+            // Parse the body as it downloads, so one that doesn't parse is never cached. With
+            // nothing on screen yet, also show the items as they are parsed.
+            final List<MediaInfo> parsed = new ArrayList<MediaInfo>();
+            final MediaSelectionDialog chunkTarget = (cachedList == null) ? this : null;
+            CatalogCache.BodyReader reader = new CatalogCache.BodyReader() {
+                @Override
+                public void read(InputStream in) throws IOException {
+                    try {
+                        XmlPullParser parser = Xml.newPullParser();
+                        parser.setInput(in, null);
+                        parser.nextTag();
+                        readFile(parser, parsed, chunkTarget);
+                    } catch (XmlPullParserException e) {
+                        throw new IOException("Malformed XML: " + e.getMessage());
+                    }
+                }
+            };
+            CatalogCache.Entry entry = cache.fetch(mediaListUrl, reader);
+            if (entry == cached) {
+                return cachedList;
             }
+            List<MediaInfo> list = Collections.unmodifiableList(parsed);
+            entry.setItems(list);
+            CatalogSnapshot.write(cache.getSnapshotFile(mediaListUrl), parsed,
+                    FILE_FORMAT_VERSION, entry.getSourceHash());
+            return list;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to fetch XML file: " + mediaListUrl, e);
+            return cachedList;
+        } finally {
+            Log.d(TAG, "catalog: " + cache);
+        }
+    }
+
+    /**
+     * Returns the list parsed from a cached response. It is parsed only the first time, from the
+     * binary snapshot if there is a current one, and otherwise from the XML, after which a new
+     * snapshot is written.
+     *
+     * @return The list, or {@code null} if the response could not be parsed.
+     */
+    private static List<MediaInfo> parseEntry(CatalogCache cache, CatalogCache.Entry entry) {
+        List<MediaInfo> list = entry.getItems();
+        if (list != null) {
+            return list;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        File snapshotFile = cache.getSnapshotFile(entry.getUrl());
+        list = CatalogSnapshot.read(snapshotFile, FILE_FORMAT_VERSION, entry.getSourceHash());
+        if (list != null) {
+            Log.d(TAG, "read " + list.size() + " items from snapshot in "
+                    + (SystemClock.elapsedRealtime() - startTime) + "ms");
+            list = Collections.unmodifiableList(list);
+            entry.setItems(list);
+            return list;
+        }
 
+        try {
             list = new ArrayList<MediaInfo>();
-            readFile(parser, list);
-        } catch (MalformedURLException e) {
-            Log.w(TAG, "Failed to read XML file: " + mediaListUrl, e);
+            readFile(entry.getData(), list);
+            CatalogSnapshot.write(snapshotFile, list, FILE_FORMAT_VERSION,
+                    entry.getSourceHash());
+            list = Collections.unmodifiableList(list);
+            entry.setItems(list);
+            return list;
         } catch (IOException e) {
-            Log.w(TAG, "Failed to read XML file: " + mediaListUrl, e);
+            Log.w(TAG, "Failed to read XML file: " + entry.getUrl(), e);
         } catch (XmlPullParserException e) {
-            Log.w(TAG, "Failed to read XML file: " + mediaListUrl, e);
+            Log.w(TAG, "Failed to read XML file: " + entry.getUrl(), e);
         }
-
-        return list;
+        return null;
     }
 
-    private void readFile(XmlPullParser parser, List<MediaInfo> list)
+    /**
+     * Parses an encoded media list into {@code list}.
+     */
+    static void readFile(byte[] data, List<MediaInfo> list)
             throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        // Let the parser pick the encoding from the XML declaration.
+        parser.setInput(new ByteArrayInputStream(data), null);
+        parser.nextTag();
+        readFile(parser, list, null);
+    }
+
+    /**
+     * Parses a media list into {@code list}.
+     *
+     * @param chunkTarget A dialog to also hand the items to, through {@link #appendItems}, in
+     *     chunks as they are parsed, or {@code null}. Chunks start at one item and double in size,
+     *     so the first item shows up as soon as it is parsed without flooding the UI thread with
+     *     updates afterwards.
+     */
+    private static void readFile(XmlPullParser parser, List<MediaInfo> list,
+            MediaSelectionDialog chunkTarget) throws XmlPullParserException, IOException {
+        boolean stream = (chunkTarget != null);
+        long startTime = SystemClock.elapsedRealtime();
+        long lastChunkTime = startTime;
+        long firstItemTime = -1;
+        int chunkStart = list.size();
+        int chunkSize = 1;
+        int indexedSize = 0;
         boolean inMediaTag = false;
         MediaInfo mediaInfo = null;
         MediaInfo.Builder mediaInfoBuilder = null;
@@ -197,6 +374,24 @@ abstract class MediaSelectionDialog extends ListSelectionDialog<MediaInfo> {
                 inMediaTag = false;
                 mediaInfoBuilder = null;
                 mediaTracks = null;
+
+                long now = SystemClock.elapsedRealtime();
+                if (firstItemTime < 0) {
+                    firstItemTime = now - startTime;
+                }
+                if (stream && (((list.size() - chunkStart) >= chunkSize)
+                        || ((now - lastChunkTime) >= MAX_CHUNK_DELAY_MS))) {
+                    if (list.size() >= 2 * indexedSize) {
+                        // Reindexing only when the list has doubled keeps the total work linear.
+                        chunkTarget.indexItems(new ArrayList<MediaInfo>(list));
+                        indexedSize = list.size();
+                    }
+                    chunkTarget.appendItems(
+                            new ArrayList<MediaInfo>(list.subList(chunkStart, list.size())));
+                    chunkStart = list.size();
+                    chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+                    lastChunkTime = now;
+                }
             } else if ((type == XmlPullParser.START_TAG) && XML_TAG_TRACK.equals(parser.getName())
                     && inMediaTag) {
                 AttributeSet attrs = Xml.asAttributeSet(parser);
@@ -273,6 +468,14 @@ abstract class MediaSelectionDialog extends ListSelectionDialog<MediaInfo> {
                 mediaTracks.add(track);
             }
         }
+
+        if (stream && (list.size() > chunkStart)) {
+            chunkTarget.appendItems(
+                    new ArrayList<MediaInfo>(list.subList(chunkStart, list.size())));
+        }
+        Log.d(TAG, "parsed " + list.size() + " items in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms, first after "
+                + firstItemTime + "ms");
     }
 
 }
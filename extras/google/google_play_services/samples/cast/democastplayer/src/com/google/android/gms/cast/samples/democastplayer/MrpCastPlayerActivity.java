@@ -14,7 +14,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.support.v7.media.MediaControlIntent;
 import android.support.v7.media.MediaItemMetadata;
 import android.support.v7.media.MediaItemStatus;
@@ -36,6 +35,7 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
             "com.google.android.gms.cast.samples.democastplayer.RECEIVE_SESSION_STATUS_UPDATE";
     private static final String ACTION_RECEIVE_MEDIA_STATUS_UPDATE =
             "com.google.android.gms.cast.samples.democastplayer.RECEIVE_MEDIA_STATUS_UPDATE";
+    private static final String REQUEST_GROUP_PLAYBACK = "playback";
 
     private RouteInfo mCurrentRoute;
     private String mLastRouteId;
@@ -48,12 +48,9 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
     private PendingIntent mMediaStatusUpdateIntent;
     private IntentFilter mMediaStatusBroadcastIntentFilter;
     private BroadcastReceiver mMediaStatusBroadcastReceiver;
-    private long mStreamPositionTimestamp;
-    private long mLastKnownStreamPosition;
-    private long mStreamDuration;
-    private boolean mStreamAdvancing;
     private ResultBundleHandler mMediaResultHandler;
     private MediaInfo mPendingMedia;
+    private final ControlRequestDispatcher mRequestDispatcher = new ControlRequestDispatcher();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -117,6 +114,7 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
 
     @Override
     public void onPause() {
+        Log.d(TAG, "request stats: " + mRequestDispatcher);
         cancelRefreshTimer();
         unregisterReceiver(mSessionStatusBroadcastReceiver);
         unregisterReceiver(mMediaStatusBroadcastReceiver);
@@ -251,8 +249,6 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
             return;
         }
 
-        refreshPlaybackPosition(position, -1);
-
         Intent intent = new Intent(MediaControlIntent.ACTION_SEEK);
         intent.addCategory(MediaControlIntent.CATEGORY_REMOTE_PLAYBACK);
         intent.putExtra(MediaControlIntent.EXTRA_ITEM_ID, mCurrentItemId);
@@ -331,6 +327,7 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
 
     private void endSession() {
         mPendingMedia = null;
+        mRequestDispatcher.cancelAll();
 
         if (mSessionId == null) {
             return;
@@ -363,7 +360,8 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
             return;
         }
 
-        mCurrentRoute.sendControlRequest(intent, new MediaRouter.ControlRequestCallback() {
+        mRequestDispatcher.submit(mCurrentRoute, getRequestGroup(intent), intent,
+                new MediaRouter.ControlRequestCallback() {
             @Override
             public void onResult(Bundle data) {
                 Log.d(TAG, "got onResult for " + intent.getAction() + " with bundle " + data);
@@ -384,6 +382,24 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
         });
     }
 
+    /*
+     * Returns the group of requests of which only the latest matters, such as seeks, or null if
+     * every request like this one must be sent.
+     */
+    private static String getRequestGroup(Intent intent) {
+        String action = intent.getAction();
+        if (MediaControlIntent.ACTION_PAUSE.equals(action)
+                || MediaControlIntent.ACTION_RESUME.equals(action)) {
+            return REQUEST_GROUP_PLAYBACK;
+        }
+        if (MediaControlIntent.ACTION_SEEK.equals(action)
+                || MediaControlIntent.ACTION_GET_SESSION_STATUS.equals(action)
+                || CastMediaControlIntent.ACTION_SYNC_STATUS.equals(action)) {
+            return action;
+        }
+        return null;
+    }
+
     /*
      * Processes a received session status bundle and updates the UI accordingly.
      */
@@ -483,7 +499,6 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
                     || (playbackState == MediaItemStatus.PLAYBACK_STATE_ERROR)
                     || (playbackState == MediaItemStatus.PLAYBACK_STATE_FINISHED)) {
                 clearCurrentMediaItem();
-                mStreamAdvancing = false;
             } else if ((playbackState == MediaItemStatus.PLAYBACK_STATE_PAUSED)
                     || (playbackState == MediaItemStatus.PLAYBACK_STATE_PLAYING)
                     || (playbackState == MediaItemStatus.PLAYBACK_STATE_BUFFERING)) {
@@ -502,17 +517,13 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
                 setCurrentMediaMetadata(title, artist, imageUrl);
                 updateButtonStates();
 
-                mStreamDuration = itemStatus.getContentDuration();
-                mLastKnownStreamPosition = itemStatus.getContentPosition();
-                mStreamPositionTimestamp = itemStatus.getTimestamp();
-
-                Log.d(TAG, "stream position now: " + mLastKnownStreamPosition);
+                long position = itemStatus.getContentPosition();
+                Log.d(TAG, "stream position now: " + position);
 
-                // Only refresh playback position if stream is moving.
-                mStreamAdvancing = (playbackState == MediaItemStatus.PLAYBACK_STATE_PLAYING);
-                if (mStreamAdvancing) {
-                    refreshPlaybackPosition(mLastKnownStreamPosition, mStreamDuration);
-                }
+                // Item status has no playback rate; the stream only advances while playing.
+                syncPlaybackClock(position, itemStatus.getContentDuration(), 1.0,
+                        playbackState == MediaItemStatus.PLAYBACK_STATE_PLAYING,
+                        itemStatus.getTimestamp());
             } else {
                 Log.d(TAG, "Unexpected playback state: " + playbackState);
             }
@@ -532,14 +543,12 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
     }
 
     private void clearStreamState() {
-        mStreamAdvancing = false;
-        mStreamPositionTimestamp = 0;
-        mLastKnownStreamPosition = 0;
         setPlayerState(PLAYER_STATE_NONE);
         refreshPlaybackPosition(0, 0);
     }
 
     private void setSelectedRoute(RouteInfo route) {
+        mRequestDispatcher.cancelAll();
         clearStreamState();
         mCurrentRoute = route;
         setCurrentDeviceName(route != null ? route.getName() : null);
@@ -560,16 +569,6 @@ public class MrpCastPlayerActivity extends BaseCastPlayerActivity {
 
     @Override
     protected void onRefreshEvent() {
-        if ((mStreamPositionTimestamp != 0) && !isUserSeeking() && mStreamAdvancing
-                && (mCurrentItemId != null) && (mLastKnownStreamPosition < mStreamDuration)) {
-
-            long extrapolatedStreamPosition = mLastKnownStreamPosition
-                    + (SystemClock.uptimeMillis() - mStreamPositionTimestamp);
-            if (extrapolatedStreamPosition > mStreamDuration) {
-                extrapolatedStreamPosition = mStreamDuration;
-            }
-            refreshPlaybackPosition(extrapolatedStreamPosition, -1);
-        }
         updateButtonStates();
     }
 
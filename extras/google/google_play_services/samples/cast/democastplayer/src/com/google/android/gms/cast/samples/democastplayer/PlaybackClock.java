@@ -0,0 +1,108 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.os.SystemClock;
+
+/**
+ * A local estimate of the stream position of a remote player. It is set from the position,
+ * playback rate and time of the latest status, and extrapolates from there, so the position can
+ * be shown at frame rate without asking the receiver. Times are in the
+ * {@link SystemClock#elapsedRealtime} time base.
+ */
+class PlaybackClock {
+    /** How far a reported position may be from the estimate before the estimate is reset. */
+    static final long DRIFT_THRESHOLD_MS = 500;
+
+    private long mPosition;
+    private long mDuration;
+    private double mRate;
+    private boolean mAdvancing;
+    private long mTimestamp;
+    private boolean mSet;
+
+    /**
+     * Sets the clock from a status.
+     *
+     * @param position The stream position, in milliseconds.
+     * @param duration The stream duration, in milliseconds, or a value of 0 or less if unknown.
+     * @param rate The playback rate, 1 for normal speed.
+     * @param advancing Whether the stream is playing, as opposed to paused or buffering.
+     * @param timestamp When the position was current.
+     */
+    public void set(long position, long duration, double rate, boolean advancing,
+            long timestamp) {
+        mPosition = position;
+        mDuration = duration;
+        mRate = rate;
+        mAdvancing = advancing;
+        mTimestamp = timestamp;
+        mSet = true;
+    }
+
+    /**
+     * Moves the clock to a new position, as after a local seek, keeping its rate.
+     */
+    public void seekTo(long position) {
+        if (mSet) {
+            mPosition = position;
+            mTimestamp = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public void reset() {
+        mSet = false;
+        mAdvancing = false;
+    }
+
+    public boolean isSet() {
+        return mSet;
+    }
+
+    /**
+     * @return Whether the estimate changes over time.
+     */
+    public boolean isAdvancing() {
+        return mSet && mAdvancing && (mRate != 0);
+    }
+
+    /**
+     * @return The estimated stream position now, in milliseconds, clamped to the stream.
+     */
+    public long getPosition() {
+        return getPosition(SystemClock.elapsedRealtime());
+    }
+
+    long getPosition(long now) {
+        if (!mSet) {
+            return 0;
+        }
+        long position = mPosition;
+        if (mAdvancing) {
+            position += (long) ((now - mTimestamp) * mRate);
+        }
+        if ((mDuration > 0) && (position > mDuration)) {
+            position = mDuration;
+        }
+        return Math.max(0, position);
+    }
+
+    /**
+     * Compares a position reported by the player with the estimate, and takes the reported one
+     * if they are more than {@link #DRIFT_THRESHOLD_MS} apart.
+     *
+     * @return Whether the clock was reset to the reported position.
+     */
+    public boolean correct(long reportedPosition) {
+        if (!mSet) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (Math.abs(getPosition(now) - reportedPosition) <= DRIFT_THRESHOLD_MS) {
+            return false;
+        }
+        mPosition = reportedPosition;
+        mTimestamp = now;
+        return true;
+    }
+}
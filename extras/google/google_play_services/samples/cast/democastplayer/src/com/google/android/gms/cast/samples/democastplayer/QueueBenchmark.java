@@ -0,0 +1,448 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaInfo;
+import com.google.android.gms.cast.MediaQueueItem;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link FakeCastReceiver} with a random mix of queue operations, as fast as it
+ * answers, and reports the throughput and the latency percentiles of each kind of operation.
+ *
+ * This measures the fake receiver, the media namespace protocol and the sample's own edit logic,
+ * not a device or {@code RemoteMediaPlayer}: its numbers are not those of a real cast session.
+ * Edits go through the same {@link QueueEditor} as the edits made in the queue screens, with a
+ * {@link QueueEditor.Sender} that stands in for {@code RemoteMediaPlayer}. The other operations,
+ * and the messages themselves, are built here to match what {@code RemoteMediaPlayer} sends for
+ * {@code queueLoad}, {@code queueInsertItems}, {@code queueRemoveItems} and
+ * {@code queueJumpToItem}. Requests are sent one at a time, and the queue is tracked from the
+ * replies. An operation is timed from building its request until its reply has been applied. At
+ * the end, the tracked queue is checked against the receiver's.
+ *
+ * Blocks for a few seconds, so must not be run on the UI thread.
+ */
+public class QueueBenchmark {
+    private static final String TAG = "QueueBenchmark";
+    public static final int DEFAULT_OPERATIONS = 5000;
+    private static final int CATALOG_ENTRIES = 100;
+    private static final int INITIAL_ITEMS = 100;
+    /** The queue is kept between these sizes, so the cost per operation stays comparable. */
+    private static final int MIN_ITEMS = 50;
+    private static final int MAX_ITEMS = 200;
+    private static final long REPLY_TIMEOUT_MS = 5000;
+    private static final long SEED = 42;
+
+    private static final int OPERATION_LOAD = 0;
+    private static final int OPERATION_INSERT = 1;
+    private static final int OPERATION_REMOVE = 2;
+    private static final int OPERATION_JUMP = 3;
+    private static final int OPERATION_EDIT = 4;
+    private static final String[] OPERATION_NAMES = {"load", "insert", "remove", "jump", "edit"};
+
+    private final List<MediaInfo> mMedia;
+    private final Random mRandom = new Random(SEED);
+    private final BlockingQueue<String> mReplies = new LinkedBlockingQueue<String>();
+    private final LoopbackTransport mTransport;
+    private final Latencies[] mLatencies = new Latencies[OPERATION_NAMES.length];
+    private final QueueEditor mEditor = new QueueEditor();
+    private final QueueEditor.Sender<IOException> mEditSender = new FakeReceiverSender();
+    private int mNextRequestId = 1;
+    private int mMessageCount;
+
+    // The queue as of the latest reply.
+    private int mMediaSessionId;
+    private int[] mItemIds = new int[0];
+    private SparseArray<MediaQueueItem> mItems = new SparseArray<MediaQueueItem>();
+
+    private QueueBenchmark(FakeCastReceiver receiver, List<MediaInfo> media) {
+        mMedia = media;
+        mTransport = new LoopbackTransport(receiver, new LoopbackTransport.MessageListener() {
+            @Override
+            public void onMessageReceived(String namespace, String message) {
+                mReplies.add(message);
+            }
+        });
+        for (int i = 0; i < mLatencies.length; i++) {
+            mLatencies[i] = new Latencies();
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param operations The number of operations to run after the initial load.
+     * @return A one-line summary of the throughput and latencies.
+     */
+    public static String run(int operations)
+            throws IOException, XmlPullParserException, JSONException {
+        List<MediaInfo> media = new ArrayList<MediaInfo>(CATALOG_ENTRIES);
+        MediaSelectionDialog.readFile(CatalogBenchmark.buildCatalog(CATALOG_ENTRIES), media);
+        FakeCastReceiver receiver = new FakeCastReceiver();
+        QueueBenchmark benchmark = new QueueBenchmark(receiver, media);
+        benchmark.mTransport.start();
+        try {
+            long startTime = SystemClock.elapsedRealtime();
+            benchmark.runOperation(OPERATION_LOAD);
+            for (int i = 0; i < operations; i++) {
+                benchmark.runOperation(benchmark.nextOperation());
+            }
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+            benchmark.verify();
+
+            StringBuilder result = new StringBuilder();
+            result.append(operations).append(" queue operations, ")
+                    .append(benchmark.mMessageCount).append(" messages in ").append(elapsed)
+                    .append("ms: ").append(operations * 1000L / elapsed).append(" ops/s, ")
+                    .append(benchmark.mMessageCount * 1000L / elapsed).append(" messages/s");
+            for (int i = 0; i < OPERATION_NAMES.length; i++) {
+                if (benchmark.mLatencies[i].mCount > 0) {
+                    result.append("; ").append(OPERATION_NAMES[i]).append(' ')
+                            .append(benchmark.mLatencies[i]);
+                }
+            }
+            result.append("; ").append(benchmark.mEditor.getStats()).append("; ")
+                    .append(receiver);
+            Log.d(TAG, result.toString());
+            return result.toString();
+        } finally {
+            benchmark.mTransport.stop();
+        }
+    }
+
+    private int nextOperation() {
+        if (mItemIds.length < MIN_ITEMS) {
+            return OPERATION_INSERT;
+        } else if (mItemIds.length > MAX_ITEMS) {
+            return OPERATION_REMOVE;
+        }
+        int roll = mRandom.nextInt(100);
+        if (roll < 30) {
+            return OPERATION_INSERT;
+        } else if (roll < 55) {
+            return OPERATION_REMOVE;
+        } else if (roll < 85) {
+            return OPERATION_JUMP;
+        }
+        return OPERATION_EDIT;
+    }
+
+    private void runOperation(int operation) throws IOException, JSONException {
+        long startTime = System.nanoTime();
+        switch (operation) {
+            case OPERATION_LOAD:
+                load(INITIAL_ITEMS);
+                break;
+            case OPERATION_INSERT:
+                insert();
+                break;
+            case OPERATION_REMOVE:
+                remove();
+                break;
+            case OPERATION_JUMP:
+                jump();
+                break;
+            case OPERATION_EDIT:
+                edit();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        mLatencies[operation].add(System.nanoTime() - startTime);
+    }
+
+    private void load(int count) throws IOException, JSONException {
+        MediaQueueItem[] items = newItems(count);
+        JSONObject request = new JSONObject();
+        request.put("type", "QUEUE_LOAD");
+        request.put("items", toJsonArray(items));
+        request.put("startIndex", 0);
+        request.put("repeatMode", "REPEAT_ALL");
+        mItems.clear();
+        applyStatus(send(request), items);
+    }
+
+    private void insert() throws IOException, JSONException {
+        MediaQueueItem[] items = newItems(1 + mRandom.nextInt(4));
+        // A quarter of the inserts append.
+        int insertBeforeItemId = (mRandom.nextInt(4) == 0)
+                ? MediaQueueItem.INVALID_ITEM_ID : randomItemId();
+        applyStatus(sendInsert(items, insertBeforeItemId), items);
+    }
+
+    private void remove() throws IOException, JSONException {
+        int[] itemIds = new int[1 + mRandom.nextInt(3)];
+        for (int i = 0; i < itemIds.length; i++) {
+            itemIds[i] = randomItemId();
+        }
+        applyStatus(sendRemove(itemIds), null);
+    }
+
+    private void jump() throws IOException, JSONException {
+        JSONObject request = newQueueRequest("QUEUE_UPDATE");
+        request.put("currentItemId", randomItemId());
+        applyStatus(send(request), null);
+    }
+
+    /**
+     * Edits a copy of the queue as a user would in the queue screens, changing the start time of
+     * a few items, moving one, removing one and adding one, and sends the difference.
+     */
+    private void edit() throws IOException, JSONException {
+        MediaQueueItem[] current = new MediaQueueItem[mItemIds.length];
+        for (int i = 0; i < current.length; i++) {
+            current[i] = mItems.get(mItemIds[i]);
+        }
+        List<MediaQueueItem> edited = new ArrayList<MediaQueueItem>(Arrays.asList(current));
+        for (int i = 0; i < 3; i++) {
+            int position = mRandom.nextInt(edited.size());
+            edited.set(position, new MediaQueueItem.Builder(edited.get(position))
+                    .setStartTime(mRandom.nextInt(60)).build());
+        }
+        edited.add(mRandom.nextInt(edited.size()),
+                edited.remove(mRandom.nextInt(edited.size())));
+        edited.remove(mRandom.nextInt(edited.size()));
+        edited.add(mRandom.nextInt(edited.size() + 1), newItems(1)[0]);
+
+        mEditor.send(current, edited.toArray(new MediaQueueItem[edited.size()]), mItemIds,
+                mEditSender);
+    }
+
+    /**
+     * Checks the queue tracked from the replies against the receiver's own.
+     */
+    private void verify() throws IOException, JSONException {
+        JSONObject request = new JSONObject();
+        request.put("type", "GET_STATUS");
+        JSONArray items = send(request).getJSONArray("items");
+        if (items.length() != mItemIds.length) {
+            throw new IOException("Receiver has " + items.length() + " items, expected "
+                    + mItemIds.length);
+        }
+        for (int i = 0; i < items.length(); i++) {
+            MediaQueueItem item = new MediaQueueItem.Builder(items.getJSONObject(i)).build();
+            MediaQueueItem expected = mItems.get(mItemIds[i]);
+            if ((item.getItemId() != mItemIds[i])
+                    || !item.toJson().toString().equals(expected.toJson().toString())) {
+                throw new IOException("Queue differs from the receiver's at position " + i);
+            }
+        }
+    }
+
+    private JSONObject sendInsert(MediaQueueItem[] items, int insertBeforeItemId)
+            throws IOException, JSONException {
+        JSONObject request = newQueueRequest("QUEUE_INSERT");
+        request.put("items", toJsonArray(items));
+        putInsertBefore(request, insertBeforeItemId);
+        return send(request);
+    }
+
+    private JSONObject sendRemove(int[] itemIds) throws IOException, JSONException {
+        JSONObject request = newQueueRequest("QUEUE_REMOVE");
+        request.put("itemIds", toJsonArray(itemIds));
+        return send(request);
+    }
+
+    /**
+     * Sends a request and waits for the reply.
+     *
+     * @return The status in the reply.
+     * @throws IOException If the receiver didn't reply in time, or rejected the request.
+     */
+    private JSONObject send(JSONObject request) throws IOException, JSONException {
+        int requestId = mNextRequestId++;
+        request.put("requestId", requestId);
+        mMessageCount++;
+        mTransport.sendMessage(FakeCastReceiver.MEDIA_NAMESPACE, request.toString());
+        String message;
+        try {
+            message = mReplies.poll(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for request " + requestId);
+        }
+        if (message == null) {
+            throw new IOException("No reply to request " + requestId);
+        }
+        JSONObject reply = new JSONObject(message);
+        if ((reply.optInt("requestId") != requestId)
+                || !"MEDIA_STATUS".equals(reply.optString("type"))) {
+            throw new IOException("Request " + request + " failed: " + message);
+        }
+        return reply.getJSONArray("status").getJSONObject(0);
+    }
+
+    /**
+     * Updates the tracked queue from a status.
+     *
+     * @param status The status.
+     * @param inserted The items just sent to be added, which take the IDs that are new to the
+     *     queue, in order; or {@code null} if none were.
+     */
+    private void applyStatus(JSONObject status, MediaQueueItem[] inserted)
+            throws IOException, JSONException {
+        mMediaSessionId = status.getInt("mediaSessionId");
+        JSONArray items = status.getJSONArray("items");
+        int[] itemIds = new int[items.length()];
+        SparseArray<MediaQueueItem> itemsById = new SparseArray<MediaQueueItem>(itemIds.length);
+        int insertedCount = 0;
+        for (int i = 0; i < itemIds.length; i++) {
+            int itemId = items.getJSONObject(i).getInt("itemId");
+            MediaQueueItem item = mItems.get(itemId);
+            if (item == null) {
+                if ((inserted == null) || (insertedCount == inserted.length)) {
+                    throw new IOException("Unexpected item " + itemId);
+                }
+                JSONObject json = inserted[insertedCount++].toJson();
+                json.put("itemId", itemId);
+                item = new MediaQueueItem.Builder(json).build();
+            }
+            itemIds[i] = itemId;
+            itemsById.put(itemId, item);
+        }
+        mItemIds = itemIds;
+        mItems = itemsById;
+    }
+
+    private JSONObject newQueueRequest(String type) throws JSONException {
+        JSONObject request = new JSONObject();
+        request.put("type", type);
+        request.put("mediaSessionId", mMediaSessionId);
+        return request;
+    }
+
+    private MediaQueueItem[] newItems(int count) {
+        MediaQueueItem[] items = new MediaQueueItem[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = new MediaQueueItem.Builder(mMedia.get(mRandom.nextInt(mMedia.size())))
+                    .build();
+        }
+        return items;
+    }
+
+    private int randomItemId() {
+        return mItemIds[mRandom.nextInt(mItemIds.length)];
+    }
+
+    private static void putInsertBefore(JSONObject request, int insertBeforeItemId)
+            throws JSONException {
+        if (insertBeforeItemId != MediaQueueItem.INVALID_ITEM_ID) {
+            request.put("insertBefore", insertBeforeItemId);
+        }
+    }
+
+    private static JSONArray toJsonArray(MediaQueueItem[] items) {
+        JSONArray array = new JSONArray();
+        for (MediaQueueItem item : items) {
+            array.put(item.toJson());
+        }
+        return array;
+    }
+
+    private static JSONArray toJsonArray(int[] values) {
+        JSONArray array = new JSONArray();
+        for (int value : values) {
+            array.put(value);
+        }
+        return array;
+    }
+
+    /**
+     * Sends the calls of an edit to the receiver as the media namespace messages
+     * {@code RemoteMediaPlayer} sends for them, and applies each reply before the next call.
+     */
+    private class FakeReceiverSender implements QueueEditor.Sender<IOException> {
+        @Override
+        public void queueRemoveItems(int[] itemIds) throws IOException {
+            try {
+                applyStatus(sendRemove(itemIds), null);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void queueReorderItems(int[] itemIds, int insertBeforeItemId)
+                throws IOException {
+            try {
+                JSONObject request = newQueueRequest("QUEUE_REORDER");
+                request.put("itemIds", toJsonArray(itemIds));
+                putInsertBefore(request, insertBeforeItemId);
+                applyStatus(send(request), null);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void queueUpdateItems(MediaQueueItem[] items) throws IOException {
+            try {
+                JSONObject request = newQueueRequest("QUEUE_UPDATE");
+                request.put("items", toJsonArray(items));
+                applyStatus(send(request), null);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+            for (MediaQueueItem item : items) {
+                mItems.put(item.getItemId(), item);
+            }
+        }
+
+        @Override
+        public void queueInsertItems(MediaQueueItem[] items, int insertBeforeItemId)
+                throws IOException {
+            try {
+                applyStatus(sendInsert(items, insertBeforeItemId), items);
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * The latencies of one kind of operation, kept whole so the tail can be read exactly.
+     */
+    private static class Latencies {
+        long[] mNanos = new long[256];
+        int mCount;
+
+        void add(long nanos) {
+            if (mCount == mNanos.length) {
+                mNanos = Arrays.copyOf(mNanos, mCount * 2);
+            }
+            mNanos[mCount++] = nanos;
+        }
+
+        @Override
+        public String toString() {
+            long[] sorted = Arrays.copyOf(mNanos, mCount);
+            Arrays.sort(sorted);
+            return "n=" + mCount + " p50=" + micros(sorted, 0.5) + "us p99="
+                    + micros(sorted, 0.99) + "us p99.9=" + micros(sorted, 0.999) + "us max="
+                    + (sorted[mCount - 1] / 1000) + "us";
+        }
+
+        private static long micros(long[] sorted, double fraction) {
+            int index = (int) Math.ceil(sorted.length * fraction) - 1;
+            return sorted[Math.max(0, index)] / 1000;
+        }
+    }
+}
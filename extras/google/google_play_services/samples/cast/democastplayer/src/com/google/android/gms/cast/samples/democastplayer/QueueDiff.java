@@ -0,0 +1,310 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaQueueItem;
+
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The changes that turn the queue on the receiver into a locally edited copy of it, matched by
+ * item ID, as the batches the queue calls of {@code RemoteMediaPlayer} take:
+ * <ul>
+ * <li>the IDs of the items to remove, in one batch;
+ * <li>runs of items to move in front of an item that stays put, one batch per run;
+ * <li>the items whose properties changed, in one batch;
+ * <li>runs of new items to insert in front of an existing item, one batch per run.
+ * </ul>
+ * Applied in that order, they leave the receiver with the edited queue. The items that stay put
+ * are a longest increasing subsequence of the current order, so as few items as possible move.
+ *
+ * Items in the edited queue with {@link MediaQueueItem#INVALID_ITEM_ID} are new. Items whose ID
+ * is no longer on the receiver were removed by someone else in the meantime, and are left out.
+ */
+public class QueueDiff {
+    private final int[] mRemovedItemIds;
+    private final List<Batch> mMoves;
+    private final MediaQueueItem[] mUpdatedItems;
+    private final List<Batch> mInserts;
+    private final int mPayloadBytes;
+    private final int mFullPayloadBytes;
+
+    /**
+     * Items that go in front of an item.
+     */
+    public static class Batch {
+        private final MediaQueueItem[] mItems;
+        private final int mInsertBeforeItemId;
+
+        Batch(List<MediaQueueItem> items, int insertBeforeItemId) {
+            mItems = items.toArray(new MediaQueueItem[items.size()]);
+            mInsertBeforeItemId = insertBeforeItemId;
+        }
+
+        public MediaQueueItem[] getItems() {
+            return mItems;
+        }
+
+        public int[] getItemIds() {
+            int[] itemIds = new int[mItems.length];
+            for (int i = 0; i < mItems.length; i++) {
+                itemIds[i] = mItems[i].getItemId();
+            }
+            return itemIds;
+        }
+
+        /**
+         * @return The ID of the item to go in front of, or
+         *     {@link MediaQueueItem#INVALID_ITEM_ID} for the end of the queue.
+         */
+        public int getInsertBeforeItemId() {
+            return mInsertBeforeItemId;
+        }
+    }
+
+    /**
+     * Totals over many diffs, of what was sent against what sending the whole edited queue
+     * would have cost.
+     */
+    public static class Stats {
+        private final AtomicInteger mDiffs = new AtomicInteger();
+        private final AtomicInteger mCalls = new AtomicInteger();
+        private final AtomicLong mPayloadBytes = new AtomicLong();
+        private final AtomicLong mFullPayloadBytes = new AtomicLong();
+
+        public void record(QueueDiff diff) {
+            mDiffs.incrementAndGet();
+            mCalls.addAndGet(diff.getCallCount());
+            mPayloadBytes.addAndGet(diff.getPayloadBytes());
+            mFullPayloadBytes.addAndGet(diff.getFullPayloadBytes());
+        }
+
+        public long getBytesSaved() {
+            return mFullPayloadBytes.get() - mPayloadBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "QueueDiff.Stats[diffs=" + mDiffs + " calls=" + mCalls + " sentBytes="
+                    + mPayloadBytes + " fullBytes=" + mFullPayloadBytes + " savedBytes="
+                    + getBytesSaved() + "]";
+        }
+    }
+
+    private QueueDiff(int[] removedItemIds, List<Batch> moves, MediaQueueItem[] updatedItems,
+            List<Batch> inserts, int payloadBytes, int fullPayloadBytes) {
+        mRemovedItemIds = removedItemIds;
+        mMoves = moves;
+        mUpdatedItems = updatedItems;
+        mInserts = inserts;
+        mPayloadBytes = payloadBytes;
+        mFullPayloadBytes = fullPayloadBytes;
+    }
+
+    /**
+     * Computes the changes from one queue to another.
+     *
+     * @param current The queue on the receiver.
+     * @param edited The edited queue.
+     * @param baseItemIds The IDs of the items the editor was shown, or {@code null}. Only these
+     *     are removed when missing from the edited queue, so that items someone else added while
+     *     the queue was being edited survive. If {@code null}, nothing is removed.
+     */
+    public static QueueDiff compute(MediaQueueItem[] current, MediaQueueItem[] edited,
+            int[] baseItemIds) {
+        SparseIntArray currentPositions = new SparseIntArray(current.length);
+        for (int i = 0; i < current.length; i++) {
+            currentPositions.put(current[i].getItemId(), i);
+        }
+        String[] currentJson = new String[current.length];
+        boolean[] kept = new boolean[current.length];
+        int payloadBytes = 0;
+        int fullPayloadBytes = 0;
+
+        // The items that are still on the receiver, in edited order, and where they are now.
+        List<MediaQueueItem> survivors = new ArrayList<MediaQueueItem>();
+        List<MediaQueueItem> updated = new ArrayList<MediaQueueItem>();
+        int[] survivorPositions = new int[edited.length];
+        for (MediaQueueItem item : edited) {
+            String json = item.toJson().toString();
+            fullPayloadBytes += json.length();
+            int position = currentPositions.get(item.getItemId(), -1);
+            if ((item.getItemId() == MediaQueueItem.INVALID_ITEM_ID) || (position == -1)
+                    || kept[position]) {
+                continue;
+            }
+            kept[position] = true;
+            survivorPositions[survivors.size()] = position;
+            survivors.add(item);
+            if (currentJson[position] == null) {
+                currentJson[position] = current[position].toJson().toString();
+            }
+            if (!json.equals(currentJson[position])) {
+                updated.add(item);
+                payloadBytes += json.length();
+            }
+        }
+
+        int[] removed = new int[0];
+        if (baseItemIds != null) {
+            removed = new int[baseItemIds.length];
+            int count = 0;
+            for (int itemId : baseItemIds) {
+                int position = currentPositions.get(itemId, -1);
+                if ((position != -1) && !kept[position]) {
+                    removed[count++] = itemId;
+                    payloadBytes += idBytes(itemId);
+                }
+            }
+            removed = Arrays.copyOf(removed, count);
+        }
+
+        // Everything outside a longest run of survivors already in order moves, in runs that
+        // each go in front of the next item that stays put.
+        boolean[] staysPut = longestIncreasingSubsequence(survivorPositions, survivors.size());
+        List<Batch> moves = new ArrayList<Batch>();
+        List<MediaQueueItem> run = new ArrayList<MediaQueueItem>();
+        for (int i = 0; i <= survivors.size(); i++) {
+            if ((i == survivors.size()) || staysPut[i]) {
+                if (!run.isEmpty()) {
+                    int insertBeforeItemId = (i == survivors.size())
+                            ? MediaQueueItem.INVALID_ITEM_ID : survivors.get(i).getItemId();
+                    moves.add(new Batch(run, insertBeforeItemId));
+                    payloadBytes += idBytes(insertBeforeItemId);
+                    run.clear();
+                }
+            } else {
+                run.add(survivors.get(i));
+                payloadBytes += idBytes(survivors.get(i).getItemId());
+            }
+        }
+
+        // New items go in front of the next survivor.
+        List<Batch> inserts = new ArrayList<Batch>();
+        for (int i = 0; i <= edited.length; i++) {
+            MediaQueueItem item = (i < edited.length) ? edited[i] : null;
+            if ((item != null) && (item.getItemId() == MediaQueueItem.INVALID_ITEM_ID)) {
+                run.add(item);
+                payloadBytes += item.toJson().toString().length();
+                continue;
+            }
+            boolean survivor = (item != null)
+                    && (currentPositions.get(item.getItemId(), -1) != -1);
+            if ((item != null) && !survivor) {
+                continue;
+            }
+            if (!run.isEmpty()) {
+                int insertBeforeItemId = (item == null)
+                        ? MediaQueueItem.INVALID_ITEM_ID : item.getItemId();
+                inserts.add(new Batch(run, insertBeforeItemId));
+                payloadBytes += idBytes(insertBeforeItemId);
+                run.clear();
+            }
+        }
+
+        return new QueueDiff(removed, Collections.unmodifiableList(moves),
+                updated.toArray(new MediaQueueItem[updated.size()]),
+                Collections.unmodifiableList(inserts), payloadBytes, fullPayloadBytes);
+    }
+
+    public int[] getRemovedItemIds() {
+        return mRemovedItemIds;
+    }
+
+    /**
+     * @return The runs of items to reorder, in the order to apply them.
+     */
+    public List<Batch> getMoves() {
+        return mMoves;
+    }
+
+    public MediaQueueItem[] getUpdatedItems() {
+        return mUpdatedItems;
+    }
+
+    /**
+     * @return The runs of new items to insert, in the order to apply them.
+     */
+    public List<Batch> getInserts() {
+        return mInserts;
+    }
+
+    public boolean isEmpty() {
+        return getCallCount() == 0;
+    }
+
+    /**
+     * @return The number of calls it takes to apply the diff.
+     */
+    public int getCallCount() {
+        return ((mRemovedItemIds.length > 0) ? 1 : 0) + mMoves.size()
+                + ((mUpdatedItems.length > 0) ? 1 : 0) + mInserts.size();
+    }
+
+    /**
+     * @return The approximate size of what the diff sends: the JSON of the items it updates or
+     *     inserts, and the IDs it removes or moves.
+     */
+    public int getPayloadBytes() {
+        return mPayloadBytes;
+    }
+
+    /**
+     * @return The size of the JSON of the whole edited queue.
+     */
+    public int getFullPayloadBytes() {
+        return mFullPayloadBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueDiff[removed=" + mRemovedItemIds.length + " moveRuns=" + mMoves.size()
+                + " updated=" + mUpdatedItems.length + " insertRuns=" + mInserts.size()
+                + " bytes=" + mPayloadBytes + "/" + mFullPayloadBytes + "]";
+    }
+
+    /**
+     * Marks a longest strictly increasing subsequence of {@code values[0..count)}, by patience
+     * sorting.
+     */
+    private static boolean[] longestIncreasingSubsequence(int[] values, int count) {
+        // tails[k] is the index of the smallest value ending an increasing run of length k + 1.
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (values[tails[mid]] < values[i]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[i] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] marked = new boolean[count];
+        for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            marked[i] = true;
+        }
+        return marked;
+    }
+
+    private static int idBytes(int itemId) {
+        // The ID and a separator.
+        return String.valueOf(itemId).length() + 1;
+    }
+}
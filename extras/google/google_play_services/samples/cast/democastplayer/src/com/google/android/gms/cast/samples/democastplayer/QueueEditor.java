@@ -0,0 +1,78 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaQueueItem;
+
+import android.util.Log;
+
+/**
+ * Sends an edited copy of the queue to the receiver as only the queue calls needed to turn the
+ * receiver's queue into it, as found by {@link QueueDiff}.
+ *
+ * The calls go through a {@link Sender}, so the edits made in the queue screens reach a
+ * {@code RemoteMediaPlayer} and those made by {@link QueueBenchmark} reach a
+ * {@link FakeCastReceiver} through the same code.
+ */
+public class QueueEditor {
+    private static final String TAG = "QueueEditor";
+
+    /**
+     * Makes the queue calls, in the order they are to be applied.
+     *
+     * @param <E> The exception a call may throw.
+     */
+    public interface Sender<E extends Exception> {
+        void queueRemoveItems(int[] itemIds) throws E;
+
+        void queueReorderItems(int[] itemIds, int insertBeforeItemId) throws E;
+
+        void queueUpdateItems(MediaQueueItem[] items) throws E;
+
+        void queueInsertItems(MediaQueueItem[] items, int insertBeforeItemId) throws E;
+    }
+
+    private final QueueDiff.Stats mStats = new QueueDiff.Stats();
+
+    /**
+     * Sends what differs between the receiver's queue and an edited copy of it.
+     *
+     * @param current The receiver's queue, or {@code null} if not known, in which case the whole
+     *     edited queue is sent as an update.
+     * @param edited The edited queue.
+     * @param baseItemIds The IDs of the items in the queue when editing started, or {@code null}
+     *     if not known, in which case no items are removed.
+     * @param sender Makes the calls.
+     */
+    public <E extends Exception> void send(MediaQueueItem[] current, MediaQueueItem[] edited,
+            int[] baseItemIds, Sender<E> sender) throws E {
+        if (current == null) {
+            // Nothing to compare against.
+            sender.queueUpdateItems(edited);
+            return;
+        }
+        QueueDiff diff = QueueDiff.compute(current, edited, baseItemIds);
+        mStats.record(diff);
+        Log.d(TAG, "send: " + diff + " " + mStats);
+
+        if (diff.getRemovedItemIds().length > 0) {
+            sender.queueRemoveItems(diff.getRemovedItemIds());
+        }
+        for (QueueDiff.Batch batch : diff.getMoves()) {
+            sender.queueReorderItems(batch.getItemIds(), batch.getInsertBeforeItemId());
+        }
+        if (diff.getUpdatedItems().length > 0) {
+            sender.queueUpdateItems(diff.getUpdatedItems());
+        }
+        for (QueueDiff.Batch batch : diff.getInserts()) {
+            sender.queueInsertItems(batch.getItems(), batch.getInsertBeforeItemId());
+        }
+    }
+
+    /**
+     * @return The totals over every edit sent so far.
+     */
+    public QueueDiff.Stats getStats() {
+        return mStats;
+    }
+}
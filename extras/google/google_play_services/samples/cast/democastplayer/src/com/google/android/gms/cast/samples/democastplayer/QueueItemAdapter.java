@@ -6,9 +6,11 @@ import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
 import com.google.android.gms.cast.MediaQueueItem;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,12 +23,15 @@ import android.widget.TextView;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * An array adapter of the queue items. Keeps track of the selected (RadioButton) and checked
- * (CheckBox) items.
+ * (CheckBox) items, and indexes the items by ID through a {@link QueueModel} that follows every
+ * change to the list.
  */
 class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
     private final Listener mListener;
@@ -34,7 +39,9 @@ class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
     private final int mCheckBoxesVisibility;
     private final boolean mClickable;
     private int mSelectedPosition = -1;
-    private Set<Integer> mCheckedPositions = new HashSet<>();
+    private final QueueModel mModel = new QueueModel();
+    /** The adapter's own list, so items can be replaced and moved by position. */
+    private final List<MediaQueueItem> mItems;
 
     public interface Listener {
         void onSelectedItemChanged(int position);
@@ -43,7 +50,15 @@ class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
 
     public QueueItemAdapter(Context context, int resource, Listener listener,
             boolean showRadioButtons, boolean showCheckBoxes, boolean clickable) {
-        super(context, resource);
+        this(context, resource, new ArrayList<MediaQueueItem>(), listener, showRadioButtons,
+                showCheckBoxes, clickable);
+    }
+
+    private QueueItemAdapter(Context context, int resource, List<MediaQueueItem> items,
+            Listener listener, boolean showRadioButtons, boolean showCheckBoxes,
+            boolean clickable) {
+        super(context, resource, items);
+        mItems = items;
         mListener = listener;
         mRadioButtonsVisibility = showRadioButtons ? View.VISIBLE : View.GONE;
         mCheckBoxesVisibility = showCheckBoxes ? View.VISIBLE : View.GONE;
@@ -69,23 +84,51 @@ class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
     }
 
     public void setSelectItemId(int itemId) {
-        if (itemId != MediaQueueItem.INVALID_ITEM_ID) {
-            for (int i = 0; i < getCount(); i++) {
-                if (getItem(i).getItemId() == itemId) {
-                    setSelectedPosition(i);
-                    return;
-                }
-            }
+        int position = mModel.positionOf(itemId);
+        if (position != -1) {
+            setSelectedPosition(position);
         }
     }
 
+    /**
+     * @return The position of the item with the given ID, or -1 if there is none.
+     */
+    public int getPositionOfItemId(int itemId) {
+        return mModel.positionOf(itemId);
+    }
+
+    public boolean isChecked(int position) {
+        return mModel.isChecked(position);
+    }
+
+    public void setChecked(int position, boolean checked) {
+        mModel.setChecked(position, checked);
+    }
+
+    /**
+     * @return The IDs of the checked items, in queue order.
+     */
     public int[] getCheckedItemIds() {
-        int[] checkedItemIds = new int[mCheckedPositions.size()];
-        int i = 0;
-        for (int position : mCheckedPositions) {
-            checkedItemIds[i++] = getItem(position).getItemId();
-        }
-        return checkedItemIds;
+        return mModel.getCheckedItemIds();
+    }
+
+    /**
+     * Replaces the item at a position, keeping whether it is checked.
+     */
+    public void replace(int position, MediaQueueItem item) {
+        // By position: removing by value would take the first equal item, which may be another.
+        mItems.set(position, item);
+        mModel.set(position, item.getItemId());
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Moves an item, keeping whether it is checked.
+     */
+    public void move(int from, int to) {
+        mItems.add(to, mItems.remove(from));
+        mModel.move(from, to);
+        notifyDataSetChanged();
     }
 
     public void populateAdapterWithIntent(Intent intent) {
@@ -129,10 +172,11 @@ class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
 
         CheckBox checkBox = (CheckBox) view.findViewById(R.id.check_box);
         checkBox.setVisibility(mCheckBoxesVisibility);
+        checkBox.setChecked(mModel.isChecked(position));
         checkBox.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mCheckedPositions.add(position);
+                mModel.setChecked(position, ((CheckBox) view).isChecked());
             }
         });
 
@@ -175,8 +219,58 @@ class QueueItemAdapter extends ArrayAdapter<MediaQueueItem> {
         return view;
     }
 
+    @Override
+    public void add(MediaQueueItem item) {
+        super.add(item);
+        mModel.add(item.getItemId());
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void addAll(Collection<? extends MediaQueueItem> items) {
+        super.addAll(items);
+        for (MediaQueueItem item : items) {
+            mModel.add(item.getItemId());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public void addAll(MediaQueueItem... items) {
+        super.addAll(items);
+        for (MediaQueueItem item : items) {
+            mModel.add(item.getItemId());
+        }
+    }
+
+    @Override
+    public void insert(MediaQueueItem item, int index) {
+        super.insert(item, index);
+        mModel.insert(index, item.getItemId());
+    }
+
+    @Override
+    public void remove(MediaQueueItem item) {
+        int position = getPosition(item);
+        if (position != -1) {
+            super.remove(item);
+            mModel.remove(position);
+        }
+    }
+
+    @Override
+    public void sort(Comparator<? super MediaQueueItem> comparator) {
+        super.sort(comparator);
+        // Every position may have changed, so the checks can't follow their items.
+        mModel.clear();
+        for (int i = 0; i < getCount(); i++) {
+            mModel.add(getItem(i).getItemId());
+        }
+    }
+
     @Override
     public void clear() {
         super.clear();
+        mModel.clear();
     }
 }
@@ -97,13 +97,7 @@ public class QueueListFragment extends ListFragment implements QueueItemAdapter.
         if (insertBeforeItemId == MediaQueueItem.INVALID_ITEM_ID) {
             queueItemAdapter.add(queueItem);
         } else {
-            int indexToInsert = -1;
-            for (int i = 0; i < queueItemAdapter.getCount(); i++) {
-                if (queueItemAdapter.getItem(i).getItemId() == insertBeforeItemId) {
-                    indexToInsert = i;
-                    break;
-                }
-            }
+            int indexToInsert = queueItemAdapter.getPositionOfItemId(insertBeforeItemId);
             if (indexToInsert != -1) {
                 queueItemAdapter.insert(queueItem, indexToInsert);
             }
@@ -127,9 +121,7 @@ public class QueueListFragment extends ListFragment implements QueueItemAdapter.
             } catch (JSONException e) {
                 return;
             }
-            MediaQueueItem oldItem = ((QueueItemAdapter) getListAdapter()).getItem(position);
-            ((QueueItemAdapter) getListAdapter()).remove(oldItem);
-            ((QueueItemAdapter) getListAdapter()).insert(newItem, position);
+            ((QueueItemAdapter) getListAdapter()).replace(position, newItem);
         }
     }
 }
@@ -0,0 +1,200 @@
+// Copyright 2015 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import com.google.android.gms.cast.MediaQueueItem;
+
+import android.util.SparseIntArray;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The item IDs of a queue by position, with an index from item ID back to position and the set
+ * of checked positions. It mirrors the list of an adapter, and must be told about every change
+ * to it.
+ *
+ * The index is kept up to date on every change, so a lookup is a binary search. An insert or
+ * remove re-indexes just the positions it shifts, which the array copy touches anyway, so edits
+ * near the end of the queue are cheap and each edit costs time proportional to the items after
+ * it; a move re-indexes only the positions between its ends. Checked positions are a bitset that
+ * is shifted along with the items, so the checked items can be listed in time proportional to
+ * their number.
+ *
+ * Items that aren't on the receiver yet have {@link MediaQueueItem#INVALID_ITEM_ID} and are not
+ * indexed.
+ */
+class QueueModel {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] mItemIds = new int[INITIAL_CAPACITY];
+    private int mSize;
+    /** Item ID to position, for every item that has an ID. */
+    private final SparseIntArray mPositions = new SparseIntArray();
+    private final BitSet mChecked = new BitSet();
+    private int mCheckedCount;
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getItemId(int position) {
+        checkPosition(position, mSize);
+        return mItemIds[position];
+    }
+
+    /**
+     * @return The position of the item with the given ID, or -1 if there is none.
+     */
+    public int positionOf(int itemId) {
+        if (itemId == MediaQueueItem.INVALID_ITEM_ID) {
+            return -1;
+        }
+        return mPositions.get(itemId, -1);
+    }
+
+    public void add(int itemId) {
+        insert(mSize, itemId);
+    }
+
+    public void insert(int position, int itemId) {
+        checkPosition(position, mSize + 1);
+        if (mSize == mItemIds.length) {
+            mItemIds = Arrays.copyOf(mItemIds, mSize * 2);
+        }
+        System.arraycopy(mItemIds, position, mItemIds, position + 1, mSize - position);
+        mItemIds[position] = itemId;
+        shiftChecked(position, 1);
+        mSize++;
+        reindex(position, mSize);
+    }
+
+    public void remove(int position) {
+        checkPosition(position, mSize);
+        int itemId = mItemIds[position];
+        if (itemId != MediaQueueItem.INVALID_ITEM_ID) {
+            mPositions.delete(itemId);
+        }
+        if (mChecked.get(position)) {
+            mChecked.clear(position);
+            mCheckedCount--;
+        }
+        System.arraycopy(mItemIds, position + 1, mItemIds, position, mSize - position - 1);
+        shiftChecked(position + 1, -1);
+        mSize--;
+        reindex(position, mSize);
+    }
+
+    /**
+     * Moves an item, keeping whether it is checked.
+     *
+     * @param from The current position of the item.
+     * @param to The position of the item once moved.
+     */
+    public void move(int from, int to) {
+        checkPosition(from, mSize);
+        checkPosition(to, mSize);
+        if (from == to) {
+            return;
+        }
+        int itemId = mItemIds[from];
+        boolean checked = mChecked.get(from);
+        // Only the items between the two ends shift, by one position towards the gap.
+        int step = (from < to) ? 1 : -1;
+        for (int i = from; i != to; i += step) {
+            mItemIds[i] = mItemIds[i + step];
+            mChecked.set(i, mChecked.get(i + step));
+        }
+        mItemIds[to] = itemId;
+        mChecked.set(to, checked);
+        reindex(Math.min(from, to), Math.max(from, to) + 1);
+    }
+
+    /**
+     * Replaces the item at a position, keeping whether it is checked.
+     */
+    public void set(int position, int itemId) {
+        checkPosition(position, mSize);
+        int oldItemId = mItemIds[position];
+        if (oldItemId == itemId) {
+            return;
+        }
+        if (oldItemId != MediaQueueItem.INVALID_ITEM_ID) {
+            mPositions.delete(oldItemId);
+        }
+        mItemIds[position] = itemId;
+        if (itemId != MediaQueueItem.INVALID_ITEM_ID) {
+            mPositions.put(itemId, position);
+        }
+    }
+
+    public void clear() {
+        mSize = 0;
+        mPositions.clear();
+        mChecked.clear();
+        mCheckedCount = 0;
+    }
+
+    public boolean isChecked(int position) {
+        return mChecked.get(position);
+    }
+
+    public void setChecked(int position, boolean checked) {
+        checkPosition(position, mSize);
+        if (mChecked.get(position) != checked) {
+            mChecked.set(position, checked);
+            mCheckedCount += checked ? 1 : -1;
+        }
+    }
+
+    public int getCheckedCount() {
+        return mCheckedCount;
+    }
+
+    /**
+     * @return The IDs of the checked items, in queue order.
+     */
+    public int[] getCheckedItemIds() {
+        int[] itemIds = new int[mCheckedCount];
+        int i = 0;
+        for (int position = mChecked.nextSetBit(0); position >= 0;
+                position = mChecked.nextSetBit(position + 1)) {
+            itemIds[i++] = mItemIds[position];
+        }
+        return itemIds;
+    }
+
+    /**
+     * Points the index at the current positions of the items in {@code [from, to)}.
+     */
+    private void reindex(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (mItemIds[i] != MediaQueueItem.INVALID_ITEM_ID) {
+                mPositions.put(mItemIds[i], i);
+            }
+        }
+    }
+
+    /**
+     * Moves the checked bits at and past {@code from} by {@code delta} positions.
+     */
+    private void shiftChecked(int from, int delta) {
+        if ((mCheckedCount == 0) || (from >= mSize)) {
+            return;
+        }
+        BitSet tail = mChecked.get(from, mSize);
+        if (tail.isEmpty()) {
+            return;
+        }
+        mChecked.clear(Math.min(from, from + delta), mSize);
+        for (int bit = tail.nextSetBit(0); bit >= 0; bit = tail.nextSetBit(bit + 1)) {
+            mChecked.set(from + delta + bit);
+        }
+    }
+
+    private static void checkPosition(int position, int limit) {
+        if ((position < 0) || (position >= limit)) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + limit);
+        }
+    }
+}
@@ -39,7 +39,9 @@ import android.widget.Toast;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -60,6 +62,7 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
     private static final int RESULT_CODE_QUEUE_INSERT_AND_PLAY = 6;
 
     private static final String START_TIME_DIALOG_TAG = "StartTimeDialogFragment";
+    private static final String OPERATION_REQUEST_STATUS = "Request Status";
 
     private Button mLoadQueueButton;
     private Button mInsertQueueButton;
@@ -84,6 +87,9 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
     private TextView mStartTimeTitle;
     private TextView mStartTimeTextView;
     private boolean mResolvingError = false;
+    private int[] mEditedQueueItemIds;
+    private final QueueEditor mQueueEditor = new QueueEditor();
+    private final QueueEditor.Sender<RuntimeException> mQueueSender = new QueueSender();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -135,6 +141,7 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
                 Intent intent = new Intent(SdkCastPlayerActivity.this,
                         QueueUpdateItemsActivity.class);
                 putExtraMediaStatus(mMediaPlayer.getMediaStatus(), intent);
+                mEditedQueueItemIds = getQueueItemIds(mMediaPlayer.getMediaStatus());
                 startActivityForResult(intent, RESULT_CODE_QUEUE_UPDATE);
             }
         });
@@ -242,6 +249,36 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
         intent.putExtra(QueueJumpActivity.EXTRA_CURRENT_ITEM_ID, mediaStatus.getCurrentItemId());
     }
 
+    private static int[] getQueueItemIds(MediaStatus mediaStatus) {
+        if (mediaStatus == null) {
+            return null;
+        }
+        int[] itemIds = new int[mediaStatus.getQueueItemCount()];
+        for (int i = 0; i < itemIds.length; ++i) {
+            itemIds[i] = mediaStatus.getQueueItem(i).getItemId();
+        }
+        return itemIds;
+    }
+
+    /**
+     * Sends the receiver only what differs between its queue and an edited copy of it.
+     *
+     * @param edited The edited queue.
+     * @param baseItemIds The IDs of the items in the queue when editing started, or {@code null}
+     *     if not known, in which case no items are removed.
+     */
+    private void sendQueueEdits(MediaQueueItem[] edited, int[] baseItemIds) {
+        MediaStatus mediaStatus = mMediaPlayer.getMediaStatus();
+        MediaQueueItem[] current = null;
+        if (mediaStatus != null) {
+            current = new MediaQueueItem[mediaStatus.getQueueItemCount()];
+            for (int i = 0; i < current.length; ++i) {
+                current[i] = mediaStatus.getQueueItem(i);
+            }
+        }
+        mQueueEditor.send(current, edited, baseItemIds, mQueueSender);
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode != Activity.RESULT_OK) {
@@ -302,9 +339,8 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
                         // should never happen.
                     }
                 }
-                mMediaPlayer.queueUpdateItems(mApiClient, items, null)
-                        .setResultCallback(new MediaResultCallback(
-                                getString(R.string.mediaop_queue_update)));
+                sendQueueEdits(items, mEditedQueueItemIds);
+                mEditedQueueItemIds = null;
                 break;
             }
             case RESULT_CODE_QUEUE_REMOVE: {
@@ -518,8 +554,6 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
             return;
         }
 
-        refreshPlaybackPosition(position, -1);
-
         int behavior = getSeekBehavior();
 
         int resumeState;
@@ -718,11 +752,14 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
         }
 
         Log.d(TAG, "requesting current media status");
+        final long startTime = MediaOperationStats.getInstance().begin(OPERATION_REQUEST_STATUS);
         mMediaPlayer.requestStatus(mApiClient).setResultCallback(
                 new ResultCallback<RemoteMediaPlayer.MediaChannelResult>() {
                     @Override
                     public void onResult(MediaChannelResult result) {
                         Status status = result.getStatus();
+                        MediaOperationStats.getInstance().end(OPERATION_REQUEST_STATUS,
+                                startTime, status.isSuccess());
                         if (!status.isSuccess()) {
                             Log.w(TAG, "Unable to request status: " + status.getStatusCode());
                         }
@@ -830,8 +867,15 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
         if (mMediaPlayer == null) {
             return;
         }
-        refreshPlaybackPosition(mMediaPlayer.getApproximateStreamPosition(),
-                mMediaPlayer.getStreamDuration());
+        MediaStatus mediaStatus = mMediaPlayer.getMediaStatus();
+        if (mediaStatus == null) {
+            refreshPlaybackPosition(mMediaPlayer.getApproximateStreamPosition(),
+                    mMediaPlayer.getStreamDuration());
+            return;
+        }
+        syncPlaybackClock(mMediaPlayer.getApproximateStreamPosition(),
+                mMediaPlayer.getStreamDuration(), mediaStatus.getPlaybackRate(),
+                mediaStatus.getPlayerState() == MediaStatus.PLAYER_STATE_PLAYING);
     }
 
     private void updateActiveTracks() {
@@ -913,8 +957,9 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
 
     @Override
     protected void onRefreshEvent() {
-        if (!mSeeking) {
-            updatePlaybackPosition();
+        if (!mSeeking && (mMediaPlayer != null)) {
+            // The playback clock moves the position controls; only correct it if it drifts.
+            correctPlaybackClock(mMediaPlayer.getApproximateStreamPosition());
         }
         updateStreamVolume();
         updateButtonStates();
@@ -1103,11 +1148,56 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
         }
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        MediaOperationStats.getInstance().dump(prefix, writer);
+    }
+
+    /*
+     * Makes the calls of a queue edit on the receiver through the RemoteMediaPlayer.
+     */
+    private class QueueSender implements QueueEditor.Sender<RuntimeException> {
+        @Override
+        public void queueRemoveItems(int[] itemIds) {
+            mMediaPlayer.queueRemoveItems(mApiClient, itemIds, null)
+                    .setResultCallback(new MediaResultCallback(
+                            getString(R.string.mediaop_queue_remove)));
+        }
+
+        @Override
+        public void queueReorderItems(int[] itemIds, int insertBeforeItemId) {
+            mMediaPlayer.queueReorderItems(mApiClient, itemIds, insertBeforeItemId, null)
+                    .setResultCallback(new MediaResultCallback(
+                            getString(R.string.mediaop_queue_reorder)));
+        }
+
+        @Override
+        public void queueUpdateItems(MediaQueueItem[] items) {
+            mMediaPlayer.queueUpdateItems(mApiClient, items, null)
+                    .setResultCallback(new MediaResultCallback(
+                            getString(R.string.mediaop_queue_update)));
+        }
+
+        @Override
+        public void queueInsertItems(MediaQueueItem[] items, int insertBeforeItemId) {
+            mMediaPlayer.queueInsertItems(mApiClient, items, insertBeforeItemId, null)
+                    .setResultCallback(new MediaResultCallback(
+                            getString(R.string.mediaop_queue_insert)));
+        }
+    }
+
+    /*
+     * Reports the result of a media operation, and times it from when the callback is created,
+     * which is as the operation is issued.
+     */
     private class MediaResultCallback implements ResultCallback<MediaChannelResult> {
         private final String mOperationName;
+        private final long mStartTime;
 
         public MediaResultCallback(String operationName) {
             mOperationName = operationName;
+            mStartTime = MediaOperationStats.getInstance().begin(operationName);
         }
 
         @Override
@@ -1115,8 +1205,10 @@ public class SdkCastPlayerActivity extends BaseCastPlayerActivity {
             Status status = result.getStatus();
             // Ignore STATUS_REPLACED since it's just an informative status and doesn't indicate
             // a failure.
-            if (!status.isSuccess()
-                    && (status.getStatusCode() != RemoteMediaPlayer.STATUS_REPLACED)) {
+            boolean failed = !status.isSuccess()
+                    && (status.getStatusCode() != RemoteMediaPlayer.STATUS_REPLACED);
+            MediaOperationStats.getInstance().end(mOperationName, mStartTime, !failed);
+            if (failed) {
                 Log.w(TAG, mOperationName + " failed: " + status.getStatusCode());
                 showErrorDialog(getString(R.string.error_operation_failed, mOperationName));
             } else {
@@ -0,0 +1,272 @@
+// Copyright 2013 Google Inc. All Rights Reserved.
+
+package com.google.android.gms.cast.samples.democastplayer;
+
+import android.annotation.TargetApi;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded thread pool shared by the background work of the player, so that a slow catalog
+ * download doesn't hold up artwork and vice versa. Work is queued in priority {@link Lane}s;
+ * within a lane it runs in submission order. Tasks are registered with an owner, typically the
+ * activity or fragment that started them, and can be cancelled together with
+ * {@link #cancelAll}.
+ *
+ * {@link #execute} and {@link #cancelAll} must be called on the UI thread. Before Honeycomb
+ * {@link AsyncTask#executeOnExecutor} doesn't exist, so tasks run on the platform's own pool,
+ * which is already parallel there, and the lane only feeds the metrics.
+ */
+public class TaskExecutor {
+    /**
+     * The priority lanes, most urgent first.
+     */
+    public enum Lane {
+        /** Artwork for a view the user is looking at. */
+        ARTWORK,
+        /** The media catalog behind the selection dialogs. */
+        CATALOG,
+        /** Speculative work whose result nobody is waiting for yet. */
+        PREFETCH
+    }
+
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static TaskExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final LaneStats[] mStats = new LaneStats[Lane.values().length];
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Map<Object, List<AsyncTask<?, ?, ?>>> mTasksByOwner =
+            new WeakHashMap<Object, List<AsyncTask<?, ?, ?>>>();
+
+    public static synchronized TaskExecutor getInstance() {
+        if (sInstance == null) {
+            int threads = Math.max(2,
+                    Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+            sInstance = new TaskExecutor(threads);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param threads The number of worker threads.
+     */
+    public TaskExecutor(int threads) {
+        for (Lane lane : Lane.values()) {
+            mStats[lane.ordinal()] = new LaneStats();
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "TaskExecutor #" + threadCount.incrementAndGet());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs an AsyncTask in the given lane, on behalf of {@code owner}.
+     *
+     * @param task The task to run.
+     * @param lane The lane to queue the task in.
+     * @param owner The object whose lifecycle the task is tied to, or {@code null}.
+     * @param params The parameters for the task.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public <Params> void execute(AsyncTask<Params, ?, ?> task, Lane lane, Object owner,
+            Params... params) {
+        if (owner != null) {
+            List<AsyncTask<?, ?, ?>> tasks = mTasksByOwner.get(owner);
+            if (tasks == null) {
+                tasks = new ArrayList<AsyncTask<?, ?, ?>>();
+                mTasksByOwner.put(owner, tasks);
+            }
+            pruneFinished(tasks);
+            tasks.add(task);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            task.executeOnExecutor(new LaneExecutor(lane, task), params);
+        } else {
+            mStats[lane.ordinal()].mSubmitted.incrementAndGet();
+            task.execute(params);
+        }
+    }
+
+    /**
+     * Cancels every task started on behalf of {@code owner} that hasn't finished. Tasks still
+     * in the queue are skipped when they reach the front; running ones are not interrupted.
+     */
+    public void cancelAll(Object owner) {
+        List<AsyncTask<?, ?, ?>> tasks = mTasksByOwner.remove(owner);
+        if (tasks == null) {
+            return;
+        }
+        for (AsyncTask<?, ?, ?> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return The number of tasks waiting in the lane.
+     */
+    public int getQueueDepth(Lane lane) {
+        return mStats[lane.ordinal()].mQueued.get();
+    }
+
+    public int getMaxQueueDepth(Lane lane) {
+        return mStats[lane.ordinal()].mMaxQueued.get();
+    }
+
+    /**
+     * @return The mean time tasks in the lane spent queued, in milliseconds.
+     */
+    public long getAverageWaitMillis(Lane lane) {
+        return mStats[lane.ordinal()].averageWait();
+    }
+
+    /**
+     * @return The mean time tasks in the lane spent running, in milliseconds.
+     */
+    public long getAverageRunMillis(Lane lane) {
+        return mStats[lane.ordinal()].averageRun();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("TaskExecutor[");
+        for (Lane lane : Lane.values()) {
+            if (lane.ordinal() > 0) {
+                builder.append(' ');
+            }
+            builder.append(lane).append('=').append(mStats[lane.ordinal()]);
+        }
+        return builder.append(']').toString();
+    }
+
+    private static void pruneFinished(List<AsyncTask<?, ?, ?>> tasks) {
+        for (Iterator<AsyncTask<?, ?, ?>> it = tasks.iterator(); it.hasNext(); ) {
+            AsyncTask<?, ?, ?> task = it.next();
+            if ((task.getStatus() == AsyncTask.Status.FINISHED) || task.isCancelled()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues the work of one AsyncTask in a lane.
+     */
+    private class LaneExecutor implements Executor {
+        private final Lane mLane;
+        private final AsyncTask<?, ?, ?> mTask;
+
+        LaneExecutor(Lane lane, AsyncTask<?, ?, ?> task) {
+            mLane = lane;
+            mTask = task;
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            LaneStats stats = mStats[mLane.ordinal()];
+            stats.mSubmitted.incrementAndGet();
+            int depth = stats.mQueued.incrementAndGet();
+            while (true) {
+                int max = stats.mMaxQueued.get();
+                if ((depth <= max) || stats.mMaxQueued.compareAndSet(max, depth)) {
+                    break;
+                }
+            }
+            mExecutor.execute(new LaneRunnable(mLane, mSequence.getAndIncrement(), mTask,
+                    runnable));
+        }
+    }
+
+    private class LaneRunnable implements Runnable, Comparable<LaneRunnable> {
+        private final Lane mLane;
+        private final long mSequence;
+        private final AsyncTask<?, ?, ?> mTask;
+        private final Runnable mRunnable;
+        private final long mQueuedTime = SystemClock.elapsedRealtime();
+
+        LaneRunnable(Lane lane, long sequence, AsyncTask<?, ?, ?> task, Runnable runnable) {
+            mLane = lane;
+            mSequence = sequence;
+            mTask = task;
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            LaneStats stats = mStats[mLane.ordinal()];
+            stats.mQueued.decrementAndGet();
+            long startTime = SystemClock.elapsedRealtime();
+            stats.mWaitMillis.addAndGet(startTime - mQueuedTime);
+            if (mTask.isCancelled()) {
+                // The task has already delivered onCancelled(); running it is a no-op.
+                stats.mCancelled.incrementAndGet();
+            }
+            try {
+                mRunnable.run();
+            } finally {
+                stats.mRunMillis.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                stats.mCompleted.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(LaneRunnable other) {
+            if (mLane != other.mLane) {
+                return mLane.compareTo(other.mLane);
+            }
+            return (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+    }
+
+    private static class LaneStats {
+        final AtomicInteger mSubmitted = new AtomicInteger();
+        final AtomicInteger mCompleted = new AtomicInteger();
+        final AtomicInteger mCancelled = new AtomicInteger();
+        final AtomicInteger mQueued = new AtomicInteger();
+        final AtomicInteger mMaxQueued = new AtomicInteger();
+        final AtomicLong mWaitMillis = new AtomicLong();
+        final AtomicLong mRunMillis = new AtomicLong();
+
+        long averageWait() {
+            int count = mCompleted.get();
+            return (count == 0) ? 0 : (mWaitMillis.get() / count);
+        }
+
+        long averageRun() {
+            int count = mCompleted.get();
+            return (count == 0) ? 0 : (mRunMillis.get() / count);
+        }
+
+        @Override
+        public String toString() {
+            return "{submitted=" + mSubmitted + " completed=" + mCompleted
+                    + " cancelled=" + mCancelled + " queued=" + mQueued + " maxQueued=" + mMaxQueued
+                    + " avgWaitMs=" + averageWait() + " avgRunMs=" + averageRun() + "}";
+        }
+    }
+}
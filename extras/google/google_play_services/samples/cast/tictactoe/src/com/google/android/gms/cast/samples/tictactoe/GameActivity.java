@@ -53,7 +53,7 @@ import java.io.IOException;
  * An activity which both presents a UI on the first screen and casts the TicTacToe game board to
  * the selected Cast device and its attached second screen.
  */
-public class GameActivity extends ActionBarActivity {
+public class GameActivity extends ActionBarActivity implements DiscoveryScheduler.Provider {
     private static final String TAG = GameActivity.class.getSimpleName();
     private static final int REQUEST_GMS_ERROR = 0;
 
@@ -72,6 +72,7 @@ public class GameActivity extends ActionBarActivity {
     private MediaRouter mMediaRouter;
     private MediaRouteSelector mMediaRouteSelector;
     private MediaRouter.Callback mMediaRouterCallback;
+    private DiscoveryScheduler mDiscoveryScheduler;
     private TicTacToeChannel mGameChannel;
 
     /**
@@ -100,6 +101,7 @@ public class GameActivity extends ActionBarActivity {
                 .build();
 
         mMediaRouterCallback = new MediaRouterCallback();
+        mDiscoveryScheduler = new DiscoveryScheduler(mMediaRouter);
         mCastListener = new CastListener();
         mConnectionCallbacks = new ConnectionCallbacks();
         mConnectionFailedListener = new ConnectionFailedListener();
@@ -129,18 +131,19 @@ public class GameActivity extends ActionBarActivity {
         MediaRouteActionProvider mediaRouteActionProvider =
                 (MediaRouteActionProvider) MenuItemCompat.getActionProvider(mediaRouteMenuItem);
         mediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        mediaRouteActionProvider.setDialogFactory(new DiscoveryScheduler.DialogFactory());
         return true;
     }
 
     /**
-     * Called on application start. Using the previously selected Cast device, attempts to begin a
-     * session using the application name TicTacToe.
+     * Called on application start. Registers for route events, and leaves it to the
+     * {@link DiscoveryScheduler} to decide when to look for Cast devices.
      */
     @Override
     protected void onStart() {
         super.onStart();
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN);
+        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, 0);
+        mDiscoveryScheduler.start(mMediaRouteSelector);
     }
 
     @Override
@@ -167,7 +170,9 @@ public class GameActivity extends ActionBarActivity {
     @Override
     protected void onStop() {
         setSelectedDevice(null);
+        mDiscoveryScheduler.stop();
         mMediaRouter.removeCallback(mMediaRouterCallback);
+        Log.d(TAG, "onStop: " + mDiscoveryScheduler);
         super.onStop();
     }
 
@@ -284,6 +289,11 @@ public class GameActivity extends ActionBarActivity {
         }
     }
 
+    @Override
+    public DiscoveryScheduler getDiscoveryScheduler() {
+        return mDiscoveryScheduler;
+    }
+
     /**
      * Called when a user selects a route.
      */
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.List;
+
+/**
+ * Parcelable page of activity history, sent from the Service to the Activity.
+ *
+ * Stored as columns. On the wire the first time is written in full and the rest as zig-zag
+ * varint deltas from the previous entry, followed by one (type, confidence) byte pair per entry.
+ */
+public class ActivityHistoryChunk implements Parcelable {
+    public static final Parcelable.Creator<ActivityHistoryChunk> CREATOR = new Creator();
+
+    private final int mOffset;
+    private final int mTotal;
+    private final int mCount;
+    private final long[] mTimes;
+    private final byte[] mTypes;
+    private final byte[] mConfidences;
+
+    /**
+     * @param offset position of the first entry in the whole history.
+     * @param total size of the whole history when this page was read.
+     */
+    public ActivityHistoryChunk(int offset, int total, int count, long[] times, byte[] types,
+            byte[] confidences) {
+        mOffset = offset;
+        mTotal = total;
+        mCount = count;
+        mTimes = times;
+        mTypes = types;
+        mConfidences = confidences;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getTotal() {
+        return mTotal;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    public int getType(int index) {
+        return mTypes[index] & 0xff;
+    }
+
+    public int getConfidence(int index) {
+        return mConfidences[index] & 0xff;
+    }
+
+    /**
+     * @return true if there is more history after this page.
+     */
+    public boolean hasMore() {
+        return mOffset + mCount < mTotal;
+    }
+
+    public void addTo(List<ActivityLog> logs) {
+        for (int i = 0; i < mCount; i++) {
+            logs.add(new ActivityLog(getType(i), getConfidence(i), mTimes[i]));
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return Creator.CONTENT_DESCRIPTION;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeInt(mOffset);
+        parcel.writeInt(mTotal);
+        parcel.writeInt(mCount);
+        if (mCount == 0) {
+            return;
+        }
+        parcel.writeLong(mTimes[0]);
+
+        byte[] deltas = new byte[(mCount - 1) * 10];
+        int length = 0;
+        for (int i = 1; i < mCount; i++) {
+            long delta = mTimes[i] - mTimes[i - 1];
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            while ((zigzag & ~0x7fL) != 0) {
+                deltas[length++] = (byte) ((zigzag & 0x7f) | 0x80);
+                zigzag >>>= 7;
+            }
+            deltas[length++] = (byte) zigzag;
+        }
+        parcel.writeByteArray(deltas, 0, length);
+
+        byte[] pairs = new byte[mCount * 2];
+        for (int i = 0; i < mCount; i++) {
+            pairs[2 * i] = mTypes[i];
+            pairs[2 * i + 1] = mConfidences[i];
+        }
+        parcel.writeByteArray(pairs);
+    }
+
+    private static final class Creator implements Parcelable.Creator<ActivityHistoryChunk> {
+        private static final int CONTENT_DESCRIPTION = 0;
+        @Override
+        public ActivityHistoryChunk createFromParcel(Parcel parcel) {
+            int offset = parcel.readInt();
+            int total = parcel.readInt();
+            int count = parcel.readInt();
+            long[] times = new long[count];
+            byte[] types = new byte[count];
+            byte[] confidences = new byte[count];
+            if (count == 0) {
+                return new ActivityHistoryChunk(offset, total, 0, times, types, confidences);
+            }
+
+            times[0] = parcel.readLong();
+            byte[] deltas = parcel.createByteArray();
+            int pos = 0;
+            for (int i = 1; i < count; i++) {
+                long zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = deltas[pos++];
+                    zigzag |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                times[i] = times[i - 1] + delta;
+            }
+
+            byte[] pairs = parcel.createByteArray();
+            for (int i = 0; i < count; i++) {
+                types[i] = pairs[2 * i];
+                confidences[i] = pairs[2 * i + 1];
+            }
+            return new ActivityHistoryChunk(offset, total, count, times, types, confidences);
+        }
+
+        @Override
+        public ActivityHistoryChunk[] newArray(int size) {
+            return new ActivityHistoryChunk[size];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ActivityHistoryChunk[" + mOffset + "+" + mCount + "/" + mTotal + "]";
+    }
+}
@@ -40,18 +40,42 @@ public class ActivityLog implements Parcelable {
         ACTIVITY_MAP.put(DetectedActivity.ON_FOOT, "ON_FOOT");
     }
 
+    private final int mType;
+    private final int mConfidence;
+    private final long mTime;
     private DetectedActivity mActivity;
-    private long mTime;
 
     public ActivityLog(DetectedActivity activity, long time) {
         mActivity = activity;
+        mType = activity.getType();
+        mConfidence = activity.getConfidence();
         mTime = time;
     }
 
+    public ActivityLog(int type, int confidence, long time) {
+        mType = type;
+        mConfidence = confidence;
+        mTime = time;
+    }
+
+    /**
+     * Created on first use; prefer {@link #getType()} and {@link #getConfidence()}.
+     */
     public DetectedActivity getDetectedActivity() {
+        if (mActivity == null) {
+            mActivity = new DetectedActivity(mType, mConfidence);
+        }
         return mActivity;
     }
 
+    public int getType() {
+        return mType;
+    }
+
+    public int getConfidence() {
+        return mConfidence;
+    }
+
     public long getDetectedTime() {
         return mTime;
     }
@@ -63,8 +87,8 @@ public class ActivityLog implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel parcel, int flags) {
-        parcel.writeInt(mActivity.getConfidence());
-        parcel.writeInt(mActivity.getType());
+        parcel.writeInt(mConfidence);
+        parcel.writeInt(mType);
         parcel.writeLong(mTime);
     }
 
@@ -75,8 +99,7 @@ public class ActivityLog implements Parcelable {
             int confidence = parcel.readInt();
             int activity = parcel.readInt();
             long time = parcel.readLong();
-            DetectedActivity detectedActivity = new DetectedActivity(activity, confidence);
-            return new ActivityLog(detectedActivity, time);
+            return new ActivityLog(activity, confidence, time);
         }
 
         @Override
@@ -86,7 +109,7 @@ public class ActivityLog implements Parcelable {
     }
 
     public String getActivityType() {
-        return ACTIVITY_MAP.get(mActivity.getType());
+        return ACTIVITY_MAP.get(mType);
     }
 
     @Override
@@ -73,6 +73,8 @@ public class GooglePlayServicesActivity extends Activity implements
             Locale.US);
 
     private static List<ActivityLog> sActivities = new ArrayList<ActivityLog>();
+    /** History index one past the last activity in {@link #sActivities}. */
+    private static int sNextIndex;
 
     /**
      * Google API client.
@@ -131,6 +133,8 @@ public class GooglePlayServicesActivity extends Activity implements
                 @Override
                 public void run() {
                     mAdapter.clear();
+                    sNextIndex = 0;
+                    mScoreTextView.setText(String.valueOf(0));
                     findViewById(R.id.start_button).setEnabled(false);
                     findViewById(R.id.stop_button).setEnabled(true);
                 }
@@ -163,6 +167,29 @@ public class GooglePlayServicesActivity extends Activity implements
             });
         }
 
+        @Override
+        public void onEvents(final ActivityLog[] batch, final int firstIndex,
+                final boolean scoreChanged, final long score) throws RemoteException {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // Skip whatever a history load already gave us.
+                    int skip = Math.min(batch.length, Math.max(0, sNextIndex - firstIndex));
+                    Log.d(TAG, "Adding " + (batch.length - skip) + " activities, score " + score);
+                    if (skip < batch.length) {
+                        for (int i = skip; i < batch.length; i++) {
+                            sActivities.add(batch[i]);
+                        }
+                        sNextIndex = firstIndex + batch.length;
+                        mAdapter.notifyDataSetChanged();
+                    }
+                    if (scoreChanged) {
+                        mScoreTextView.setText(String.valueOf(score));
+                    }
+                }
+            });
+        }
+
         @Override
         public void onEndGame() throws RemoteException {
             runOnUiThread(new Runnable() {
@@ -414,22 +441,43 @@ public class GooglePlayServicesActivity extends Activity implements
     }
 
     private final class FetchHistory extends AsyncTask<Void, Void, List<ActivityLog>> {
+        /** History index one past the last activity loaded. */
+        private int mEndIndex;
 
         @Override
         protected List<ActivityLog> doInBackground(Void... voids) {
+            // Page through the history so no single transaction gets near the binder limit.
+            List<ActivityLog> logs = new ArrayList<ActivityLog>();
+            int offset = 0;
             try {
-                return mGameService.getHistory();
+                ActivityHistoryChunk chunk;
+                do {
+                    chunk = mGameService.getHistoryPage(offset, GameService.MAX_HISTORY_PAGE);
+                    chunk.addTo(logs);
+                    offset = chunk.getOffset() + chunk.size();
+                    mEndIndex = offset;
+                } while (chunk.size() > 0 && chunk.hasMore());
             } catch (RemoteException e) {
                 e.printStackTrace();
+                return null;
             }
-            return null;
+            return logs;
         }
 
         @Override
         protected void onPostExecute(List<ActivityLog> activityLogs) {
+            if (activityLogs == null) {
+                return;
+            }
             Log.d(TAG, "Got " + activityLogs.size() + " ActivityLogs.");
+            // Batches that arrived during the load and go past its end are kept after it.
+            int newer = Math.min(sActivities.size(), Math.max(0, sNextIndex - mEndIndex));
+            List<ActivityLog> tail = new ArrayList<ActivityLog>(
+                    sActivities.subList(sActivities.size() - newer, sActivities.size()));
             sActivities.clear();
             sActivities.addAll(activityLogs);
+            sActivities.addAll(tail);
+            sNextIndex = Math.max(sNextIndex, mEndIndex);
             mAdapter.notifyDataSetChanged();
         }
     }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import com.example.activitydemo.app.ActivityHistoryChunk;
+import com.example.activitydemo.app.ActivityLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded history of detected activities, stored as primitive columns in a ring.
+ *
+ * Only one thread (the game handler thread) may call {@link #append} and {@link #clear}. Any
+ * number of threads (binder threads) may call {@link #snapshot} concurrently without locking;
+ * entries overwritten while a snapshot is being copied are dropped from that snapshot.
+ */
+public class ActivityHistory {
+
+    public static final int DEFAULT_CAPACITY = 1 << 15;
+
+    private final long[] mTimes;
+    private final byte[] mTypes;
+    private final byte[] mConfidences;
+    private final int mCapacity;
+    private final int mMask;
+
+    /** Number of entries ever appended. Written only by the producer, published last. */
+    private volatile long mCount;
+    /** Index of the first entry after the last {@link #clear}. */
+    private volatile long mBase;
+
+    public ActivityHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of entries kept, must be a power of two.
+     */
+    public ActivityHistory(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mTimes = new long[capacity];
+        mTypes = new byte[capacity];
+        mConfidences = new byte[capacity];
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of entries a snapshot taken now would contain.
+     */
+    public int size() {
+        // Read mBase first, as read() does: it is only ever set to an earlier mCount, so the
+        // count read after it can't be behind it.
+        long base = mBase;
+        long count = mCount;
+        return (int) Math.max(0, Math.min(mCapacity, count - base));
+    }
+
+    /**
+     * @return the number of entries appended since the last {@link #clear}, including any that
+     *     were overwritten since; the index the next entry will get.
+     */
+    public int getTotal() {
+        long base = mBase;
+        return (int) Math.max(0, mCount - base);
+    }
+
+    /**
+     * Appends an entry, overwriting the oldest one when full. Producer thread only.
+     */
+    public void append(long time, int type, int confidence) {
+        long count = mCount;
+        int slot = (int) (count & mMask);
+        mTimes[slot] = time;
+        mTypes[slot] = (byte) type;
+        mConfidences[slot] = (byte) confidence;
+        // The volatile write publishes the column writes above to readers.
+        mCount = count + 1;
+    }
+
+    public void append(ActivityLog log) {
+        append(log.getDetectedTime(), log.getType(), log.getConfidence());
+    }
+
+    /**
+     * Forgets all entries. Producer thread only.
+     */
+    public void clear() {
+        mBase = mCount;
+    }
+
+    /**
+     * Copies the current contents, oldest first. Safe to call from any thread.
+     */
+    public List<ActivityLog> snapshot() {
+        ActivityHistoryChunk chunk = read(0, Integer.MAX_VALUE);
+        List<ActivityLog> logs = new ArrayList<ActivityLog>(chunk.size());
+        chunk.addTo(logs);
+        return logs;
+    }
+
+    /**
+     * Copies up to {@code limit} entries starting at {@code offset}, counted from the last
+     * {@link #clear}. If the oldest of those were already overwritten the page starts later;
+     * check {@link ActivityHistoryChunk#getOffset()}. Safe to call from any thread.
+     */
+    public ActivityHistoryChunk read(int offset, int limit) {
+        long base = mBase;
+        long end = mCount;
+        long start = Math.max(Math.max(base, end - mCapacity), base + Math.max(0, offset));
+        int size = (int) Math.max(0, Math.min(limit, end - start));
+
+        long[] times = new long[size];
+        byte[] types = new byte[size];
+        byte[] confidences = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int slot = (int) ((start + i) & mMask);
+            times[i] = mTimes[slot];
+            types[i] = mTypes[slot];
+            confidences[i] = mConfidences[slot];
+        }
+
+        // While we copied, the producer may have wrapped around and overwritten the oldest
+        // slots. An entry is intact if it is newer than anything a write in progress can reach.
+        long firstIntact = Math.max(start, mCount - mCapacity + 1);
+        int skip = (int) Math.min(size, Math.max(0, firstIntact - start));
+        if (skip > 0) {
+            times = Arrays.copyOfRange(times, skip, size);
+            types = Arrays.copyOfRange(types, skip, size);
+            confidences = Arrays.copyOfRange(confidences, skip, size);
+        }
+        return new ActivityHistoryChunk((int) (start + skip - base), (int) (end - base),
+                size - skip, times, types, confidences);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.util.Log;
+
+import com.example.activitydemo.app.ActivityHistoryChunk;
+import com.example.activitydemo.app.ActivityLog;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times {@link ActivityHistory} at a million entries: append throughput, full snapshot latency,
+ * page read latency, and snapshot latency while the producer keeps appending.
+ *
+ * Blocks for a few seconds, so must not be run on the UI thread.
+ */
+public class ActivityHistoryBenchmark {
+    private static final String TAG = "ActivityHistoryBench";
+
+    public static final int DEFAULT_ENTRIES = 1000000;
+    private static final int RUNS = 5;
+    private static final int PAGE_SIZE = 256;
+    private static final int PAGE_READS = 1000;
+
+    private ActivityHistoryBenchmark() {
+    }
+
+    /**
+     * @param entries number of entries to append; the history is sized to hold all of them.
+     * @return a one-line summary of the timings.
+     */
+    public static String run(int entries) {
+        ActivityHistory history = new ActivityHistory(capacityFor(entries));
+
+        long[] appendTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            history.clear();
+            long begin = System.nanoTime();
+            fill(history, entries);
+            appendTimes[run] = System.nanoTime() - begin;
+        }
+
+        long[] snapshotTimes = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long begin = System.nanoTime();
+            List<ActivityLog> logs = history.snapshot();
+            snapshotTimes[run] = System.nanoTime() - begin;
+            if (logs.size() != entries) {
+                throw new IllegalStateException("Snapshot has " + logs.size() + " entries");
+            }
+        }
+
+        long pageNanos = 0;
+        long worstPageNanos = 0;
+        for (int i = 0; i < PAGE_READS; i++) {
+            int offset = (int) ((long) i * (entries - PAGE_SIZE) / PAGE_READS);
+            long begin = System.nanoTime();
+            ActivityHistoryChunk chunk = history.read(offset, PAGE_SIZE);
+            long nanos = System.nanoTime() - begin;
+            pageNanos += nanos;
+            worstPageNanos = Math.max(worstPageNanos, nanos);
+            if (chunk.size() != Math.min(PAGE_SIZE, entries)) {
+                throw new IllegalStateException("Page has " + chunk.size() + " entries");
+            }
+        }
+
+        long medianAppend = median(appendTimes);
+        String result = entries + " entries: append " + (medianAppend / 1000000) + "ms ("
+                + (medianAppend == 0 ? 0 : entries * 1000000000L / medianAppend)
+                + " appends/s), snapshot " + (median(snapshotTimes) / 1000000) + "ms, "
+                + PAGE_SIZE + "-entry page mean " + (pageNanos / PAGE_READS / 1000) + "us worst "
+                + (worstPageNanos / 1000) + "us, " + runConcurrent(history, entries);
+        Log.d(TAG, result);
+        return result;
+    }
+
+    /**
+     * Takes snapshots on this thread while another thread appends, as binder threads do while
+     * the game is running.
+     */
+    private static String runConcurrent(final ActivityHistory history, final int entries) {
+        Thread producer = new Thread("ActivityHistoryProducer") {
+            @Override
+            public void run() {
+                fill(history, entries);
+            }
+        };
+        producer.start();
+        long[] times = new long[RUNS];
+        int shortest = Integer.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long begin = System.nanoTime();
+            int size = history.snapshot().size();
+            times[run] = System.nanoTime() - begin;
+            shortest = Math.min(shortest, size);
+        }
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "snapshot while appending " + (median(times) / 1000000) + "ms (smallest "
+                + shortest + " entries)";
+    }
+
+    private static void fill(ActivityHistory history, int entries) {
+        for (int i = 0; i < entries; i++) {
+            history.append(i * 1000L, i % 6, 50 + i % 50);
+        }
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = 1;
+        while (capacity < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long median(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.text.format.DateUtils;
+
+import com.example.activitydemo.app.ActivityLog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Encodes one game's activities as the text block we append to the daily Drive file:
+ * <pre>
+ * --- Begin Event ---
+ * HH:mm:ss.SSS: TYPE
+ * --- End Event ---
+ * </pre>
+ * The whole block is written into a single pre-sized buffer; timestamps are formatted by hand
+ * so no {@code Date} or {@code String} is created per event.
+ */
+public class ActivityLogEncoder {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] BEGIN = "--- Begin Event ---\n".getBytes(ASCII);
+    private static final byte[] END = "--- End Event ---\n".getBytes(ASCII);
+    private static final byte[] UNKNOWN = "null".getBytes(ASCII);
+    private static final int TIME_LENGTH = "HH:mm:ss.SSS".length();
+    private static final byte[] SEPARATOR = ": ".getBytes(ASCII);
+
+    private final Map<Integer, byte[]> mTypeNames = new HashMap<Integer, byte[]>();
+    private final int mMaxLineLength;
+    private final TimeZone mTimeZone;
+
+    public ActivityLogEncoder() {
+        this(TimeZone.getDefault());
+    }
+
+    public ActivityLogEncoder(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        int maxName = UNKNOWN.length;
+        for (Map.Entry<Integer, String> entry : ActivityLog.ACTIVITY_MAP.entrySet()) {
+            byte[] name = entry.getValue().getBytes(ASCII);
+            mTypeNames.put(entry.getKey(), name);
+            maxName = Math.max(maxName, name.length);
+        }
+        mMaxLineLength = TIME_LENGTH + SEPARATOR.length + maxName + 1;
+    }
+
+    /**
+     * @return a buffer holding the encoded block, flipped and ready to be written.
+     */
+    public ByteBuffer encode(List<ActivityLog> logs) {
+        int capacity = BEGIN.length + END.length + logs.size() * mMaxLineLength;
+        byte[] out = new byte[capacity];
+        int pos = put(out, 0, BEGIN);
+        for (int i = 0, n = logs.size(); i < n; i++) {
+            ActivityLog log = logs.get(i);
+            pos = putTime(out, pos, log.getDetectedTime());
+            pos = put(out, pos, SEPARATOR);
+            byte[] name = mTypeNames.get(log.getType());
+            pos = put(out, pos, name != null ? name : UNKNOWN);
+            out[pos++] = '\n';
+        }
+        pos = put(out, pos, END);
+        return ByteBuffer.wrap(out, 0, pos);
+    }
+
+    private static int put(byte[] out, int pos, byte[] bytes) {
+        System.arraycopy(bytes, 0, out, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /**
+     * Writes the local time of day of {@code timeMillis} as HH:mm:ss.SSS.
+     */
+    private int putTime(byte[] out, int pos, long timeMillis) {
+        long local = timeMillis + mTimeZone.getOffset(timeMillis);
+        long ofDay = local % DateUtils.DAY_IN_MILLIS;
+        if (ofDay < 0) {
+            ofDay += DateUtils.DAY_IN_MILLIS;
+        }
+        int millis = (int) ofDay;
+        pos = putDigits(out, pos, millis / (int) DateUtils.HOUR_IN_MILLIS, 2);
+        out[pos++] = ':';
+        pos = putDigits(out, pos, millis / (int) DateUtils.MINUTE_IN_MILLIS % 60, 2);
+        out[pos++] = ':';
+        pos = putDigits(out, pos, millis / (int) DateUtils.SECOND_IN_MILLIS % 60, 2);
+        out[pos++] = '.';
+        return putDigits(out, pos, millis % 1000, 3);
+    }
+
+    private static int putDigits(byte[] out, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + width;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+/**
+ * Bounded queue of recognized activities between the recognition receiver and the game
+ * handler, stored as primitive columns. When full, new results are dropped and counted rather
+ * than growing the queue.
+ */
+public class ActivityQueue {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final long[] mTimes;
+    private final int[] mTypes;
+    private final int[] mConfidences;
+
+    private int mHead;
+    private int mSize;
+
+    private long mOffered;
+    private long mDropped;
+    private long mBatches;
+    private int mMaxDepth;
+
+    public ActivityQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ActivityQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        mTimes = new long[capacity];
+        mTypes = new int[capacity];
+        mConfidences = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return mTimes.length;
+    }
+
+    /**
+     * @return true if the queue was empty, i.e. the consumer needs to be told to drain it.
+     */
+    public synchronized boolean offer(long time, int type, int confidence) {
+        mOffered++;
+        if (mSize == mTimes.length) {
+            mDropped++;
+            return false;
+        }
+        int slot = (mHead + mSize) % mTimes.length;
+        mTimes[slot] = time;
+        mTypes[slot] = type;
+        mConfidences[slot] = confidence;
+        mSize++;
+        if (mSize > mMaxDepth) {
+            mMaxDepth = mSize;
+        }
+        return mSize == 1;
+    }
+
+    /**
+     * Moves everything queued into the given arrays, which must hold {@link #getCapacity()}
+     * entries.
+     *
+     * @return the number of entries moved.
+     */
+    public synchronized int drainTo(long[] times, int[] types, int[] confidences) {
+        int count = mSize;
+        for (int i = 0; i < count; i++) {
+            int slot = (mHead + i) % mTimes.length;
+            times[i] = mTimes[slot];
+            types[i] = mTypes[slot];
+            confidences[i] = mConfidences[slot];
+        }
+        mHead = (mHead + count) % mTimes.length;
+        mSize = 0;
+        if (count > 0) {
+            mBatches++;
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized long getOfferedCount() {
+        return mOffered;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    public synchronized long getBatchCount() {
+        return mBatches;
+    }
+
+    public synchronized int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ActivityQueue[offered=" + mOffered + " dropped=" + mDropped
+                + " batches=" + mBatches + " maxDepth=" + mMaxDepth + "]";
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.drive.DriveId;
+
+/**
+ * Remembers the Drive folder and today's log file between games, so we don't have to query
+ * Drive for them every time. Entries are keyed by account; only the file for the most recent
+ * day is kept per account.
+ */
+public class DriveIdCache {
+
+    private static final String PREFS_NAME = "drive_ids";
+    private static final String KEY_FOLDER = "folder:";
+    private static final String KEY_FILE = "file:";
+    private static final char SEPARATOR = '|';
+
+    private final SharedPreferences mPrefs;
+
+    public DriveIdCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public DriveId getFolderId(String account) {
+        return decode(mPrefs.getString(KEY_FOLDER + account, null));
+    }
+
+    public void putFolderId(String account, DriveId id) {
+        mPrefs.edit().putString(KEY_FOLDER + account, id.encodeToString()).apply();
+    }
+
+    /**
+     * @return the cached file for {@code date}, or null if the cached file is for another day.
+     */
+    public DriveId getFileId(String account, String date) {
+        String value = mPrefs.getString(KEY_FILE + account, null);
+        if (value == null) {
+            return null;
+        }
+        int separator = value.indexOf(SEPARATOR);
+        if (separator < 0 || !date.equals(value.substring(0, separator))) {
+            return null;
+        }
+        return decode(value.substring(separator + 1));
+    }
+
+    public void putFileId(String account, String date, DriveId id) {
+        mPrefs.edit().putString(KEY_FILE + account, date + SEPARATOR + id.encodeToString())
+                .apply();
+    }
+
+    /**
+     * Drops everything cached for {@code account}, e.g. after a cached id stopped working.
+     */
+    public void invalidate(String account) {
+        mPrefs.edit().remove(KEY_FOLDER + account).remove(KEY_FILE + account).apply();
+    }
+
+    private static DriveId decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return DriveId.decodeFromString(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
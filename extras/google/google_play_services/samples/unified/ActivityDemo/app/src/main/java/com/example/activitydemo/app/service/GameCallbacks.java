@@ -23,6 +23,10 @@ import com.example.activitydemo.app.ActivityLog;
  */
 public interface GameCallbacks {
     public boolean onTick(long timeMillis);
+    /**
+     * @return how long the next {@link #onTick} can be put off without missing a change.
+     */
+    public long getNextTickDelay();
     public void onActivityDetected(ActivityLog log);
     public long getScore();
 }
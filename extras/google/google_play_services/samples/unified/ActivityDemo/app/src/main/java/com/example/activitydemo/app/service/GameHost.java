@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.hardware.SensorEventListener;
+
+/**
+ * Side effects and environment {@link GameLogic} needs. Implemented by {@link GameService} for
+ * real games and by {@link GameReplay} for replays.
+ */
+public interface GameHost {
+    public long currentTimeMillis();
+    public String getString(int resId);
+    public String[] getStringArray(int resId);
+    public void sayString(String text);
+    public void updateScore(long score);
+    public void startAccelerometer(SensorEventListener listener);
+    public void stopAccelerometer(SensorEventListener listener);
+}
@@ -16,12 +16,9 @@
 
 package com.example.activitydemo.app.service;
 
-import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.example.activitydemo.app.ActivityLog;
@@ -41,25 +38,26 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
 
     private GameTrack mGameTrack;
     private GameConfig mGameConfig;
-    private long mLastTick;
-    private GameService mService;
+    private long mStartTick = -1;
+    private GameHost mHost;
 
     private AccelerometerListener mListener;
+    private StillnessDetector mStillnessDetector = new SlidingWindowStillnessDetector();
 
     private String[] mApprove;
     private String[] mDisapprove;
     private Random mRandom = new Random();
     private long mScore;
 
-    public GameLogic(GameService service, GameConfig config, GameTrack.Stage[] gameTrack) {
+    public GameLogic(GameHost host, GameConfig config, GameTrack.Stage[] gameTrack) {
         mGameConfig = config;
         mGameTrack = new GameTrack(gameTrack, this);
         mScore = 0;
 
-        mService = service;
+        mHost = host;
 
-        mApprove = mService.getResources().getStringArray(R.array.approve);
-        mDisapprove = mService.getResources().getStringArray(R.array.disaprove);
+        mApprove = mHost.getStringArray(R.array.approve);
+        mDisapprove = mHost.getStringArray(R.array.disaprove);
     }
 
     public long getScore() {
@@ -68,43 +66,48 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
 
     @Override
     public boolean onTick(long timeMillis) {
-        long delta = timeMillis - mLastTick;
-        if (delta > GameService.GameHandler.TICK_LENGTH) {
-            delta = GameService.GameHandler.TICK_LENGTH;
+        // Track position comes from the time since the first tick, so a late tick catches up
+        // on every stage it missed instead of drifting behind.
+        if (mStartTick < 0) {
+            mStartTick = timeMillis;
         }
-        mLastTick = timeMillis;
-
-        boolean running = mGameTrack.tick(delta);
+        boolean running = mGameTrack.advanceTo(timeMillis - mStartTick);
 
         if (!running) {
-            mService.sayString(mService.getString(R.string.game_over));
-            mService.sayString("Your score was " + mScore);
+            mHost.sayString(mHost.getString(R.string.game_over));
+            mHost.sayString("Your score was " + mScore);
         }
         return running;
     }
 
+    @Override
+    public long getNextTickDelay() {
+        // The track changes stage once its elapsed time is strictly past the stage length.
+        return Math.max(1, mGameTrack.getRemainingMillis() + 1);
+    }
+
     @Override
     public void onActivityDetected(ActivityLog log) {
         GameTrack.Stage currentStage = mGameTrack.getCurrentStage();
         if (currentStage == null || currentStage.type == -1) {
             return;
         }
-        int activityType = log.getDetectedActivity().getType();
+        int activityType = log.getType();
         if (currentStage.type == DetectedActivity.STILL
                 && activityType == DetectedActivity.STILL
-                && log.getDetectedActivity().getConfidence() != 101) {
+                && log.getConfidence() != 101) {
             // We are in STILL mode let the accelerometer (which says 101 confidence) be the one.
             return;
         }
-        if (currentStage.type == log.getDetectedActivity().getType()) {
+        if (currentStage.type == activityType) {
             mScore += 100;
-            mService.updateScore(mScore);
+            mHost.updateScore(mScore);
             String approval = mApprove[mRandom.nextInt(mApprove.length)];
-            mService.sayString(approval);
+            mHost.sayString(approval);
 
         } else {
             String disapproval = mDisapprove[mRandom.nextInt(mDisapprove.length)];
-            mService.sayString(disapproval);
+            mHost.sayString(disapproval);
             mScore -= 25;
         }
     }
@@ -119,18 +122,18 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
         Log.d(TAG, "New stage " + newStage);
         switch (newStage.type) {
             case -1:
-                mService.sayString(mService.getString(R.string.pregame));
+                mHost.sayString(mHost.getString(R.string.pregame));
                 break;
             case DetectedActivity.STILL:
-                mService.sayString(mService.getString(R.string.stop));
+                mHost.sayString(mHost.getString(R.string.stop));
                 startAccelerometer();
                 break;
             case DetectedActivity.WALKING:
-                mService.sayString(mService.getString(R.string.start_walking));
+                mHost.sayString(mHost.getString(R.string.start_walking));
                 stopAccelerometer();
                 break;
             case DetectedActivity.RUNNING:
-                mService.sayString(mService.getString(R.string.start_running));
+                mHost.sayString(mHost.getString(R.string.start_running));
                 stopAccelerometer();
                 break;
         }
@@ -141,12 +144,8 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
             return;
         }
         Log.d(TAG, "Starting accelerometer");
-        SensorManager sm = (SensorManager) mService.getSystemService(Context.SENSOR_SERVICE);
-        Sensor mSensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         mListener = new AccelerometerListener();
-        if (!sm.registerListener(mListener, mSensor, SensorManager.SENSOR_DELAY_NORMAL)) {
-            Log.e(TAG, "Failed to register accelerometer");
-        }
+        mHost.startAccelerometer(mListener);
     }
 
     private void stopAccelerometer() {
@@ -154,55 +153,39 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
             return;
         }
         Log.d(TAG, "Stopping accelerometer");
-        SensorManager sm = (SensorManager) mService.getSystemService(Context.SENSOR_SERVICE);
-        sm.unregisterListener(mListener);
+        mHost.stopAccelerometer(mListener);
         mListener = null;
     }
 
     public void onStill() {
         Log.d(TAG, "Still detected");
-        onActivityDetected(new ActivityLog(new DetectedActivity(DetectedActivity.STILL, 101),
-                System.currentTimeMillis()));
+        onActivityDetected(new ActivityLog(DetectedActivity.STILL, 101,
+                mHost.currentTimeMillis()));
+    }
+
+    /**
+     * Replaces the engine that turns accelerometer samples into still reports.
+     */
+    public void setStillnessDetector(StillnessDetector detector) {
+        if (detector == null) {
+            throw new IllegalArgumentException("Need to provide a detector");
+        }
+        mStillnessDetector = detector;
     }
 
     private final class AccelerometerListener implements SensorEventListener {
-        private double mLastMagnitude;
-        private long mLastTrigger;
-        private boolean mStill;
 
         public AccelerometerListener() {
-            mLastMagnitude = Double.NaN;
-            mLastTrigger = -1;
-            mStill = true;
+            mStillnessDetector.reset();
         }
 
         @Override
         public void onSensorChanged(SensorEvent sensorEvent) {
             float[] a = sensorEvent.values;
-            double magnitude = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
-
-            //Log.d(TAG, "Magnitude " + magnitude);
-            if (mLastMagnitude != Double.NaN && Math.abs(magnitude - 9.8) > 2) {
-                Log.d(TAG, "Magnitude jumping " + magnitude);
-                mStill = false;
-            }
-
             long millis = TimeUnit.NANOSECONDS.toMillis(sensorEvent.timestamp);
-            if (mLastTrigger == -1) {
-                mLastTrigger = millis;
-            }
-
-            if (millis - mLastTrigger > 2 * DateUtils.SECOND_IN_MILLIS) {
-                if (mStill) {
-                    onStill();
-                }
-
-                mStill = true;
-                mLastTrigger = millis;
-
+            if (mStillnessDetector.onSample(millis, a[0], a[1], a[2])) {
+                onStill();
             }
-
-            mLastMagnitude = magnitude;
         }
 
         @Override
@@ -210,7 +193,4 @@ public class GameLogic implements GameCallbacks, GameTrack.OnStageChangedListene
             // Don't care
         }
     }
-
-
-
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.hardware.SensorEventListener;
+
+import com.example.activitydemo.app.ActivityLog;
+import com.example.activitydemo.app.GameConfig;
+
+import java.util.List;
+
+/**
+ * Plays a recorded stream of {@link ActivityLog}s through {@link GameLogic} and
+ * {@link GameTrack} on a virtual clock, as fast as the CPU allows.
+ *
+ * Ticks are scheduled the way {@link GameService.GameHandler} does it: at the next stage
+ * boundary, capped at {@code maxTickLength}. Events are delivered at their recorded times.
+ * Side effects go to the {@link GameHost} passed in; its clock is replaced by the virtual one.
+ */
+public class GameReplay {
+
+    private final GameHost mHost;
+    private long mNow;
+
+    public static final class Result {
+        public final long score;
+        public final long ticks;
+        public final long events;
+        public final long virtualMillis;
+        public final long elapsedNanos;
+
+        Result(long score, long ticks, long events, long virtualMillis, long elapsedNanos) {
+            this.score = score;
+            this.ticks = ticks;
+            this.events = events;
+            this.virtualMillis = virtualMillis;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+        }
+
+        public double getTicksPerSecond() {
+            return elapsedNanos == 0 ? 0 : ticks * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "score=" + score + " ticks=" + ticks + " events=" + events
+                    + " virtual=" + virtualMillis + "ms real=" + (elapsedNanos / 1000000) + "ms"
+                    + " (" + (long) getEventsPerSecond() + " events/s)";
+        }
+    }
+
+    public GameReplay(GameHost host) {
+        if (host == null) {
+            throw new IllegalArgumentException("Need to provide a host");
+        }
+        mHost = host;
+    }
+
+    /**
+     * @param events recorded activities, ordered by {@link ActivityLog#getDetectedTime()}.
+     * @param startMillis virtual time of the first tick.
+     * @param maxTickLength longest gap between two ticks.
+     */
+    public Result run(GameConfig config, GameTrack.Stage[] track, List<ActivityLog> events,
+            long startMillis, long maxTickLength) {
+        if (maxTickLength <= 0) {
+            throw new IllegalArgumentException("Tick length must be positive");
+        }
+        mNow = startMillis;
+        GameLogic logic = new GameLogic(new VirtualHost(), config, track);
+
+        long ticks = 0;
+        int next = 0;
+        int count = events.size();
+        long begin = System.nanoTime();
+        boolean running = logic.onTick(mNow);
+        ticks++;
+        while (running) {
+            long nextTick = mNow + Math.min(logic.getNextTickDelay(), maxTickLength);
+            while (next < count && events.get(next).getDetectedTime() < nextTick) {
+                ActivityLog event = events.get(next++);
+                mNow = Math.max(mNow, event.getDetectedTime());
+                logic.onActivityDetected(event);
+            }
+            mNow = nextTick;
+            running = logic.onTick(mNow);
+            ticks++;
+        }
+        long elapsed = System.nanoTime() - begin;
+        return new Result(logic.getScore(), ticks, next, mNow - startMillis, elapsed);
+    }
+
+    public Result run(GameConfig config, GameTrack.Stage[] track, List<ActivityLog> events,
+            long startMillis) {
+        return run(config, track, events, startMillis, GameService.GameHandler.UI_TICK_LENGTH);
+    }
+
+    /**
+     * A host that does nothing, for benchmarking the logic alone.
+     */
+    public static class SilentHost implements GameHost {
+        private static final String[] PHRASES = { "" };
+
+        @Override
+        public long currentTimeMillis() {
+            return 0;
+        }
+
+        @Override
+        public String getString(int resId) {
+            return "";
+        }
+
+        @Override
+        public String[] getStringArray(int resId) {
+            return PHRASES;
+        }
+
+        @Override
+        public void sayString(String text) { }
+
+        @Override
+        public void updateScore(long score) { }
+
+        @Override
+        public void startAccelerometer(SensorEventListener listener) { }
+
+        @Override
+        public void stopAccelerometer(SensorEventListener listener) { }
+    }
+
+    private final class VirtualHost implements GameHost {
+        @Override
+        public long currentTimeMillis() {
+            return mNow;
+        }
+
+        @Override
+        public String getString(int resId) {
+            return mHost.getString(resId);
+        }
+
+        @Override
+        public String[] getStringArray(int resId) {
+            return mHost.getStringArray(resId);
+        }
+
+        @Override
+        public void sayString(String text) {
+            mHost.sayString(text);
+        }
+
+        @Override
+        public void updateScore(long score) {
+            mHost.updateScore(score);
+        }
+
+        @Override
+        public void startAccelerometer(SensorEventListener listener) {
+            mHost.startAccelerometer(listener);
+        }
+
+        @Override
+        public void stopAccelerometer(SensorEventListener listener) {
+            mHost.stopAccelerometer(listener);
+        }
+    }
+}
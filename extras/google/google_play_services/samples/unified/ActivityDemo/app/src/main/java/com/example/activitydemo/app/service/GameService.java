@@ -16,13 +16,16 @@
 
 package com.example.activitydemo.app.service;
 
-import android.app.IntentService;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
@@ -38,6 +41,7 @@ import android.support.v4.app.NotificationCompat;
 import android.text.format.DateUtils;
 import android.util.Log;
 
+import com.example.activitydemo.app.ActivityHistoryChunk;
 import com.example.activitydemo.app.ActivityLog;
 import com.example.activitydemo.app.GameConfig;
 import com.example.activitydemo.app.GooglePlayServicesActivity;
@@ -61,23 +65,20 @@ import com.google.android.gms.location.ActivityRecognitionResult;
 import com.google.android.gms.location.DetectedActivity;
 import com.example.activitydemo.app.R;
 
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 
 
 /**
  * Contains our Binder service that the Activity will connect to and hosts the Service thread.
  */
-public class GameService extends Service implements TextToSpeech.OnInitListener {
+public class GameService extends Service implements TextToSpeech.OnInitListener, GameHost {
 
     private static final String TAG = "GameService";
 
@@ -85,12 +86,23 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
     public static final int STATE_IN_GAME = 1;
 
     private static final int MESSAGE_TICK = 1;
-    private static final int MESSAGE_ACTIVITY = 2;
+    private static final int MESSAGE_DRAIN_ACTIVITIES = 2;
     private static final int MESSAGE_SHUTDOWN = 3;
+    private static final int MESSAGE_FLUSH_EVENTS = 4;
 
     private static final long ACTIVITY_INTERVAL = 100L;
 
-    private static final HashSet<Integer> ACTIVITY_MASK = new HashSet<Integer>();
+    /** How long activity and score updates are held back to be sent in one callback. */
+    public static final long DEFAULT_EVENT_FLUSH_INTERVAL = 500;
+
+    /** Largest history page handed out over binder, well under the transaction limit. */
+    public static final int MAX_HISTORY_PAGE = 4096;
+
+    /** Bit set of the {@link DetectedActivity} types the game reacts to. */
+    private static final int ACTIVITY_MASK =
+            (1 << DetectedActivity.STILL) // Handle this with accelerometer
+            | (1 << DetectedActivity.RUNNING)
+            | (1 << DetectedActivity.WALKING);
 
     private static GameHandler mGameHandler;
 
@@ -107,11 +119,7 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
 
     private PowerManager.WakeLock mWakeLock;
 
-    static {
-        ACTIVITY_MASK.add(DetectedActivity.STILL); // Handle this with accelerometer
-        ACTIVITY_MASK.add(DetectedActivity.RUNNING);
-        ACTIVITY_MASK.add(DetectedActivity.WALKING);
-    }
+    private static final Object sDriveLock = new Object();
 
     @Override
     public void onCreate() {
@@ -127,6 +135,13 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         return mBinderService.asBinder();
     }
 
+    @Override
+    public boolean onUnbind(Intent intent) {
+        Log.d(TAG, "onUnbind");
+        mBinderService.clearCallbacks();
+        return false;
+    }
+
     @Override
     public void onDestroy() {
         if (mTextToSpeech != null) {
@@ -177,10 +192,11 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
             if (!(mClient.isConnected() || mClient.isConnecting())) {
                 mClient.connect();
             } else {
-                if (mBinderService.isConnected()) {
+                IActivityGameServiceCallbacks callbacks = mBinderService.getCallbacks();
+                if (callbacks != null) {
                     try {
                         int state = inGame() ? STATE_IN_GAME : STATE_PRE_GAME;
-                        mBinderService.mCallbacks.onConnected(state);
+                        callbacks.onConnected(state);
                     } catch (RemoteException e) {
                         e.printStackTrace();
                     }
@@ -217,9 +233,10 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         registerActivityUpdates();
         mGameHandler.startGame();
 
-        if (mBinderService.isConnected()) {
+        IActivityGameServiceCallbacks callbacks = mBinderService.getCallbacks();
+        if (callbacks != null) {
             try {
-                mBinderService.mCallbacks.onStartGame();
+                callbacks.onStartGame();
             }catch(RemoteException e){
             }
         }
@@ -228,7 +245,8 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
     public void endGame() {
         Log.d(TAG, "Ending game");
 
-        new UpdateDriveFileTask().execute(mGameHandler.mActivities);
+        Log.d(TAG, "Recognition ingestion: " + mGameHandler.getIngestQueue());
+        new UpdateDriveFileTask().execute(mGameHandler.mActivities.snapshot());
 
         Games.Leaderboards.submitScore(mClient,
                 getString(R.string.leaderboard_high_score_basic_track),
@@ -252,9 +270,11 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         mGameHandler.sendMessageDelayed(mGameHandler.obtainMessage(MESSAGE_SHUTDOWN),
                 5 * DateUtils.SECOND_IN_MILLIS);
 
-        if (mBinderService.isConnected()) {
+        mGameHandler.flushEvents();
+        IActivityGameServiceCallbacks callbacks = mBinderService.getCallbacks();
+        if (callbacks != null) {
             try {
-                mBinderService.mCallbacks.onEndGame();
+                callbacks.onEndGame();
             } catch (RemoteException e) { }
         }
     }
@@ -268,20 +288,40 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         mHandlerThread = null;
     }
 
-    public void updateScore(long score) {
-        if (mBinderService.isConnected()) {
-            try {
-                mBinderService.mCallbacks.onScoreChanged(score);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public String[] getStringArray(int resId) {
+        return getResources().getStringArray(resId);
+    }
+
+    @Override
+    public void startAccelerometer(SensorEventListener listener) {
+        SensorManager sm = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        Sensor sensor = sm.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        if (!sm.registerListener(listener, sensor, SensorManager.SENSOR_DELAY_GAME)) {
+            Log.e(TAG, "Failed to register accelerometer");
         }
     }
 
+    @Override
+    public void stopAccelerometer(SensorEventListener listener) {
+        SensorManager sm = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        sm.unregisterListener(listener);
+    }
+
+    @Override
+    public void updateScore(long score) {
+        mGameHandler.queueScore(score);
+    }
+
     public void registerActivityUpdates() {
         if (mRecognitionPendingIntent == null) {
-            mRecognitionPendingIntent = PendingIntent.getService(this, 0,
-                    new Intent(this, RecognitionIntentService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+            mRecognitionPendingIntent = PendingIntent.getBroadcast(this, 0,
+                    new Intent(this, RecognitionReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
         }
         ActivityRecognition.ActivityRecognitionApi.requestActivityUpdates(mClient,
                 ACTIVITY_INTERVAL,
@@ -299,8 +339,8 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
 
     public void removeActivityUpdates() {
         if (mRecognitionPendingIntent == null) {
-            mRecognitionPendingIntent = PendingIntent.getService(this, 0,
-                    new Intent(this, RecognitionIntentService.class),
+            mRecognitionPendingIntent = PendingIntent.getBroadcast(this, 0,
+                    new Intent(this, RecognitionReceiver.class),
                     PendingIntent.FLAG_UPDATE_CURRENT);
         }
         if (mClient != null && mClient.isConnected()) {
@@ -319,49 +359,47 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         }
     }
 
+    @Override
     public void sayString(String text) {
         if (mTextToSpeechWorks && mTextToSpeechEnabled) {
             mTextToSpeech.speak(text, TextToSpeech.QUEUE_ADD, null);
         }
     }
 
-    public static final class RecognitionIntentService extends IntentService {
-        private static final String TAG = "RecognitionIntentService";
-        public RecognitionIntentService() {
-            super(TAG);
-        }
+    /**
+     * Receives activity recognition results. Picks the most confident activity we care about
+     * and hands it to the game handler's queue; nothing is allocated past the result itself.
+     */
+    public static final class RecognitionReceiver extends BroadcastReceiver {
+        private static final String TAG = "RecognitionReceiver";
 
         @Override
-        public void onHandleIntent(Intent intent) {
-            if (ActivityRecognitionResult.hasResult(intent)) {
-                ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
-                List<DetectedActivity> activities = result.getProbableActivities();
-
-                DetectedActivity bestActivity = null;
-                int bestConfidence = 0;
-
-                for (DetectedActivity activity : activities) {
-                    Log.d(TAG, "Activity " + activity.getType() + " " + activity.getConfidence());
-                    if (ACTIVITY_MASK.contains(activity.getType())) {
-                        if (activity.getConfidence() > bestConfidence) {
-                            bestActivity = activity;
-                            bestConfidence = activity.getConfidence();
-                        }
-                    }
+        public void onReceive(Context context, Intent intent) {
+            if (!ActivityRecognitionResult.hasResult(intent)) {
+                return;
+            }
+            ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
+            List<DetectedActivity> activities = result.getProbableActivities();
+
+            int bestType = -1;
+            int bestConfidence = 0;
+            for (int i = 0, n = activities.size(); i < n; i++) {
+                DetectedActivity activity = activities.get(i);
+                int type = activity.getType();
+                if (type >= 0 && type < Integer.SIZE && (ACTIVITY_MASK & (1 << type)) != 0
+                        && activity.getConfidence() > bestConfidence) {
+                    bestType = type;
+                    bestConfidence = activity.getConfidence();
                 }
+            }
 
-                DetectedActivity currentActivity = bestActivity;
-                long currentTime = System.currentTimeMillis();
-                if (currentActivity == null) {
-                    Log.w(TAG, "No activity matches!");
-                    return;
-                }
-                if (mGameHandler != null && mGameHandler.getLooper().getThread().isAlive()) {
-                    mGameHandler.sendMessage(
-                            mGameHandler.obtainMessage(MESSAGE_ACTIVITY,
-                                    new ActivityLog(currentActivity, currentTime))
-                    );
-                }
+            if (bestType == -1) {
+                Log.w(TAG, "No activity matches!");
+                return;
+            }
+            GameHandler handler = mGameHandler;
+            if (handler != null && handler.getLooper().getThread().isAlive()) {
+                handler.offerActivity(System.currentTimeMillis(), bestType, bestConfidence);
             }
         }
     }
@@ -369,54 +407,205 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
     private GameCallbacks mGameCallbacks;
 
     public final class GameHandler extends Handler {
-        public static final long TICK_LENGTH = 50;
+        /** Longest gap between ticks while a client is bound, so it sees stages progress. */
+        public static final long UI_TICK_LENGTH = DateUtils.SECOND_IN_MILLIS;
 
         private final GameCallbacks mCallbacks;
-        private final List<ActivityLog> mActivities = new ArrayList<ActivityLog>();
+        private volatile boolean mRunning;
+
+        private final ActivityHistory mActivities = new ActivityHistory();
+
+        private final ActivityQueue mIngestQueue = new ActivityQueue();
+        private final long[] mDrainTimes = new long[mIngestQueue.getCapacity()];
+        private final int[] mDrainTypes = new int[mIngestQueue.getCapacity()];
+        private final int[] mDrainConfidences = new int[mIngestQueue.getCapacity()];
+
+        private final List<ActivityLog> mPendingActivities = new ArrayList<ActivityLog>();
+        /** History index of the first pending activity. */
+        private int mPendingFirstIndex;
+        private long mPendingScore;
+        /** The score the client was last sent. */
+        private long mSentScore;
+        private boolean mScoreChanged;
+        private boolean mFlushScheduled;
+        private long mFlushIntervalMillis = DEFAULT_EVENT_FLUSH_INTERVAL;
 
         public GameHandler(Looper looper, GameCallbacks callbacks) {
             super(looper);
             mCallbacks = callbacks;
         }
 
+        /**
+         * Queues a recognition result. Called from the receiver; results queued while a drain
+         * is pending are handled together in one message.
+         */
+        public void offerActivity(long time, int type, int confidence) {
+            if (mIngestQueue.offer(time, type, confidence)) {
+                sendMessage(obtainMessage(MESSAGE_DRAIN_ACTIVITIES));
+            }
+        }
+
+        public ActivityQueue getIngestQueue() {
+            return mIngestQueue;
+        }
+
         public void startGame() {
+            synchronized (mPendingActivities) {
+                // Nothing from a previous game may reach the client after onStartGame.
+                removeMessages(MESSAGE_FLUSH_EVENTS);
+                mFlushScheduled = false;
+                mPendingActivities.clear();
+                mPendingScore = 0;
+                mSentScore = 0;
+                mScoreChanged = false;
+            }
+            mRunning = true;
             sendMessage(obtainMessage(MESSAGE_TICK));
             mActivities.clear();
         }
 
+        /**
+         * Ticks right away so the next tick gets rescheduled with the UI cap applied.
+         */
+        public void onClientConnected() {
+            if (mRunning) {
+                removeMessages(MESSAGE_TICK);
+                sendMessage(obtainMessage(MESSAGE_TICK));
+            }
+        }
+
+        /**
+         * Schedules one tick at the next stage boundary instead of polling. While a client is
+         * bound we also tick at least every {@link #UI_TICK_LENGTH}; once it unbinds or dies the
+         * cap is gone from the tick after.
+         */
+        private void scheduleNextTick() {
+            long delay = mCallbacks.getNextTickDelay();
+            if (mBinderService.isConnected()) {
+                delay = Math.min(delay, UI_TICK_LENGTH);
+            }
+            removeMessages(MESSAGE_TICK);
+            sendMessageDelayed(obtainMessage(MESSAGE_TICK), delay);
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch(msg.what) {
                 case MESSAGE_TICK:
+                    if (!mRunning) {
+                        break;
+                    }
                     boolean loop = mCallbacks.onTick(msg.getWhen());
                     if (loop) {
-                        sendMessageDelayed(obtainMessage(MESSAGE_TICK), TICK_LENGTH);
+                        scheduleNextTick();
                     } else {
+                        mRunning = false;
                         endGame();
                     }
                     break;
-                case MESSAGE_ACTIVITY:
-                    ActivityLog aLog = (ActivityLog) msg.obj;
-                    mActivities.add(aLog);
-                    String activityString = aLog.getActivityType();
-                    Log.d(TAG, "Activity is " + activityString + " at "
-                            + aLog.getDetectedTime());
-                    if (mBinderService.isConnected()) {
-                        try {
-                            mBinderService.mCallbacks.onActivityChanged(aLog);
-                        } catch (RemoteException e) {
-                        }
+                case MESSAGE_DRAIN_ACTIVITIES:
+                    int count = mIngestQueue.drainTo(mDrainTimes, mDrainTypes,
+                            mDrainConfidences);
+                    for (int i = 0; i < count; i++) {
+                        ActivityLog aLog = new ActivityLog(mDrainTypes[i], mDrainConfidences[i],
+                                mDrainTimes[i]);
+                        int index = mActivities.getTotal();
+                        mActivities.append(aLog);
+                        String activityString = aLog.getActivityType();
+                        Log.d(TAG, "Activity is " + activityString + " at "
+                                + aLog.getDetectedTime());
+                        queueActivity(aLog, index);
+                        //sayString(activityString);
+
+                        mCallbacks.onActivityDetected(aLog);
                     }
-                    //sayString(activityString);
-
-                    mCallbacks.onActivityDetected(aLog);
-
+                    break;
+                case MESSAGE_FLUSH_EVENTS:
+                    flushEvents();
                     break;
                 case MESSAGE_SHUTDOWN:
                     shutdown();
                     break;
             }
         }
+
+        /**
+         * Sets how long activity and score updates are held back so they can be sent to the
+         * client in one {@link IActivityGameServiceCallbacks#onEvents} call.
+         */
+        public void setEventFlushInterval(long intervalMillis) {
+            synchronized (mPendingActivities) {
+                mFlushIntervalMillis = intervalMillis;
+            }
+        }
+
+        /**
+         * @param index the index of the activity in the history, which the client uses to drop
+         *     activities it already got from {@link IActivityGameService#getHistoryPage}.
+         */
+        public void queueActivity(ActivityLog log, int index) {
+            synchronized (mPendingActivities) {
+                if (mPendingActivities.isEmpty()) {
+                    mPendingFirstIndex = index;
+                }
+                mPendingActivities.add(log);
+                scheduleFlushLocked();
+            }
+        }
+
+        /**
+         * Score updates replace each other; only the latest one is sent, and only if it differs
+         * from the one the client has.
+         */
+        public void queueScore(long score) {
+            synchronized (mPendingActivities) {
+                mPendingScore = score;
+                mScoreChanged = score != mSentScore;
+                if (mScoreChanged) {
+                    scheduleFlushLocked();
+                }
+            }
+        }
+
+        private void scheduleFlushLocked() {
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                sendMessageDelayed(obtainMessage(MESSAGE_FLUSH_EVENTS), mFlushIntervalMillis);
+            }
+        }
+
+        /**
+         * Sends everything queued so far to the client, if one is connected.
+         */
+        public void flushEvents() {
+            ActivityLog[] batch;
+            int firstIndex;
+            boolean scoreChanged;
+            long score;
+            synchronized (mPendingActivities) {
+                removeMessages(MESSAGE_FLUSH_EVENTS);
+                mFlushScheduled = false;
+                if (mPendingActivities.isEmpty() && !mScoreChanged) {
+                    return;
+                }
+                batch = mPendingActivities.toArray(new ActivityLog[mPendingActivities.size()]);
+                firstIndex = mPendingFirstIndex;
+                scoreChanged = mScoreChanged;
+                score = mPendingScore;
+                mPendingActivities.clear();
+                if (scoreChanged) {
+                    mSentScore = score;
+                    mScoreChanged = false;
+                }
+            }
+            IActivityGameServiceCallbacks callbacks = mBinderService.getCallbacks();
+            if (callbacks != null) {
+                try {
+                    callbacks.onEvents(batch, firstIndex, scoreChanged, score);
+                } catch (RemoteException e) {
+                }
+            }
+        }
     }
 
     public final class GameAndroidService extends IActivityGameService.Stub
@@ -426,22 +615,69 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
 
         private GameService mContext;
 
-        private IActivityGameServiceCallbacks mCallbacks;
+        /** The bound client, or null once it unbound or died. */
+        private volatile IActivityGameServiceCallbacks mCallbacks;
+
+        private final IBinder.DeathRecipient mClientDeath = new IBinder.DeathRecipient() {
+            @Override
+            public void binderDied() {
+                Log.d(TAG, "User died.");
+                IActivityGameServiceCallbacks callbacks = mCallbacks;
+                // Unless a new client connected in the meantime.
+                if (callbacks != null && !callbacks.asBinder().isBinderAlive()) {
+                    clearCallbacks();
+                }
+            }
+        };
 
         public GameAndroidService(GameService context) {
             mContext = context;
         }
 
+        /**
+         * @return true while a client is bound and has connected.
+         */
         public boolean isConnected() {
-            return mCallbacks != null && isBinderAlive();
+            return mCallbacks != null;
+        }
+
+        /**
+         * @return the bound client's callbacks, or null if there is no client. Read it once and
+         *     use the copy, as the client can go away at any time.
+         */
+        public IActivityGameServiceCallbacks getCallbacks() {
+            return mCallbacks;
+        }
+
+        /**
+         * Forgets the client, so nothing more is sent to it and ticks stop being capped for it.
+         */
+        public synchronized void clearCallbacks() {
+            IActivityGameServiceCallbacks callbacks = mCallbacks;
+            if (callbacks != null) {
+                mCallbacks = null;
+                callbacks.asBinder().unlinkToDeath(mClientDeath, 0);
+            }
         }
 
         @Override
         public void connect(IActivityGameServiceCallbacks callbacks) throws RemoteException {
             Log.d(TAG, "User connecting.");
-            mCallbacks = callbacks;
+            synchronized (this) {
+                clearCallbacks();
+                try {
+                    callbacks.asBinder().linkToDeath(mClientDeath, 0);
+                } catch (RemoteException e) {
+                    Log.w(TAG, "User died before connecting.");
+                    return;
+                }
+                mCallbacks = callbacks;
+            }
 
             mContext.connectGoogleApiClient();
+            if (mGameHandler != null) {
+                mGameHandler.onClientConnected();
+            }
         }
 
         @Override
@@ -451,7 +687,12 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
 
         @Override
         public List getHistory() throws RemoteException {
-            return mGameHandler.mActivities;
+            return mGameHandler.mActivities.snapshot();
+        }
+
+        @Override
+        public ActivityHistoryChunk getHistoryPage(int offset, int limit) throws RemoteException {
+            return mGameHandler.mActivities.read(offset, Math.min(limit, MAX_HISTORY_PAGE));
         }
 
         @Override
@@ -470,9 +711,10 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         @Override
         public void onConnected(Bundle bundle) {
             Log.d(TAG, "Connection Successful.");
-            if (isConnected()) {
+            IActivityGameServiceCallbacks callbacks = mCallbacks;
+            if (callbacks != null) {
                 try {
-                    mCallbacks.onConnected(mContext.inGame() ? STATE_IN_GAME : STATE_PRE_GAME);
+                    callbacks.onConnected(mContext.inGame() ? STATE_IN_GAME : STATE_PRE_GAME);
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
@@ -496,7 +738,16 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
         private final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
         private final String FOLDER_NAME = "ActivityDemo";
 
-        private DriveFolder createFolderIfNeeded(DriveFolder root) {
+        private final ActivityLogEncoder mEncoder = new ActivityLogEncoder();
+        private final DriveIdCache mDriveIdCache = new DriveIdCache(GameService.this);
+
+        private DriveFolder createFolderIfNeeded(DriveFolder root, String account) {
+            DriveId cachedId = mDriveIdCache.getFolderId(account);
+            if (cachedId != null) {
+                Log.d(TAG, "Using Cached Folder");
+                return Drive.DriveApi.getFolder(mClient, cachedId);
+            }
+
             DriveApi.MetadataBufferResult folders = root.queryChildren(mClient, new Query.Builder()
                     .addFilter(Filters.eq(SearchableField.MIME_TYPE, DriveFolder.MIME_TYPE))
                     .addFilter(Filters.eq(SearchableField.TITLE, FOLDER_NAME))
@@ -510,6 +761,7 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
                 if (folders.getMetadataBuffer().getCount() > 0) {
                     Log.d(TAG, "Using Existing Folder");
                     DriveId id = folders.getMetadataBuffer().get(0).getDriveId();
+                    mDriveIdCache.putFolderId(account, id);
                     return Drive.DriveApi.getFolder(mClient, id);
 
                 } else {
@@ -524,20 +776,27 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
                         Log.e(TAG, "Failed to create folder.");
                         return null;
                     }
-                    return folderResult.getDriveFolder();
+                    DriveFolder folder = folderResult.getDriveFolder();
+                    mDriveIdCache.putFolderId(account, folder.getDriveId());
+                    return folder;
                 }
             } finally {
                 folders.getMetadataBuffer().release();
             }
         }
 
-        private DriveFile createFileIfNeeded(DriveFolder root) {
-            String today = DATE_FORMAT.format(Calendar.getInstance().getTime());
+        private DriveFile createFileIfNeeded(DriveFolder root, String account, String today) {
+            DriveId cachedId = mDriveIdCache.getFileId(account, today);
+            if (cachedId != null) {
+                Log.d(TAG, "Using Cached File");
+                return Drive.DriveApi.getFile(mClient, cachedId);
+            }
+
             String todayFilename = "ActivityDemo-" + today;
 
             Log.d(TAG, "Filename " + todayFilename);
 
-            DriveFolder folder = createFolderIfNeeded(root);
+            DriveFolder folder = createFolderIfNeeded(root, account);
             if (folder == null) {
                 return null;
             }
@@ -578,10 +837,13 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
                         Log.e(TAG, "Failed to create new file.");
                         return null;
                     }
-                    return fileResult.getDriveFile();
+                    DriveFile file = fileResult.getDriveFile();
+                    mDriveIdCache.putFileId(account, today, file.getDriveId());
+                    return file;
                 } else {
                     Log.d(TAG, "File already exists.");
                     DriveId driveId = metadataBufferResult.getMetadataBuffer().get(0).getDriveId();
+                    mDriveIdCache.putFileId(account, today, driveId);
                     return Drive.DriveApi.getFile(mClient, driveId);
                 }
             } finally {
@@ -589,10 +851,15 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
             }
         }
 
-        private void moveToEndOfFile(ParcelFileDescriptor pfd) throws IOException {
-            FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
-            byte buffer[] = new byte[4096];
-            while (fis.read(buffer) != -1) { }
+        /**
+         * Writes {@code data} at the current end of the file without reading what is there.
+         */
+        private void appendToFile(ParcelFileDescriptor pfd, ByteBuffer data) throws IOException {
+            FileChannel channel = new FileOutputStream(pfd.getFileDescriptor()).getChannel();
+            long position = channel.size();
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
         }
 
         @Override
@@ -601,17 +868,36 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
                 return null;
             }
 
-            if (mClient != null && mClient.isConnected()) {
-                DriveFolder root = Drive.DriveApi.getRootFolder(mClient);
+            if (mClient == null || !mClient.isConnected()) {
+                return null;
+            }
 
-                DriveFile file = createFileIfNeeded(root);
+            // Only one game end at a time may look up or create the folder and file, otherwise
+            // two of them could both miss the cache and create duplicates.
+            synchronized (sDriveLock) {
+                DriveFolder root = Drive.DriveApi.getRootFolder(mClient);
+                // The root folder id differs per account, so it keys the cache for us.
+                String account = root.getDriveId().encodeToString();
+                String today = DATE_FORMAT.format(Calendar.getInstance().getTime());
+
+                boolean cached = mDriveIdCache.getFileId(account, today) != null
+                        || mDriveIdCache.getFolderId(account) != null;
+                DriveFile file = createFileIfNeeded(root, account, today);
+                DriveApi.ContentsResult contentsResult = file == null ? null : file.openContents(
+                        mClient, DriveFile.MODE_READ_WRITE, null).await();
+                if (cached && (contentsResult == null
+                        || !contentsResult.getStatus().isSuccess())) {
+                    // A cached id went stale, e.g. the file or folder was deleted.
+                    Log.w(TAG, "Cached Drive ids failed, looking them up again.");
+                    mDriveIdCache.invalidate(account);
+                    file = createFileIfNeeded(root, account, today);
+                    contentsResult = file == null ? null : file.openContents(
+                            mClient, DriveFile.MODE_READ_WRITE, null).await();
+                }
                 if (file == null) {
                     Log.e(TAG, "Could not get file.");
                     return null;
                 }
-
-                DriveApi.ContentsResult contentsResult = file.openContents(mClient,
-                        DriveFile.MODE_READ_WRITE, null).await();
                 if (!contentsResult.getStatus().isSuccess()) {
                     Log.e(TAG, "Failed to open file for writing.");
                     return null;
@@ -619,32 +905,15 @@ public class GameService extends Service implements TextToSpeech.OnInitListener
                 Contents contents = contentsResult.getContents();
                 ParcelFileDescriptor parcelFileDescriptor = contents.getParcelFileDescriptor();
 
+                Log.d(TAG, "Writing File");
                 try {
-                    moveToEndOfFile(parcelFileDescriptor);
+                    appendToFile(parcelFileDescriptor, mEncoder.encode(activityLogs[0]));
                 } catch (IOException e) {
-                    Log.e(TAG, "Failed to move to end of file");
+                    Log.e(TAG, "Failed to append to file");
                     contents.close();
                     e.printStackTrace();
                     return null;
                 }
-
-                Log.d(TAG, "Writing File");
-                OutputStream outStream = new FileOutputStream(
-                        parcelFileDescriptor.getFileDescriptor());
-                OutputStreamWriter writer = new OutputStreamWriter(outStream);
-                try {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
-                    writer.write("--- Begin Event ---\n");
-                    for (ActivityLog log : activityLogs[0]) {
-                        String s = dateFormat.format(new Date(log.getDetectedTime()))
-                                + ": " + log.getActivityType() + "\n";
-                        writer.write(s);
-                    }
-                    writer.write("--- End Event ---\n");
-                    writer.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
                 if (file.commitAndCloseContents(mClient, contents)
                         .await().getStatus().isSuccess()) {
                     Log.d(TAG, "Wrote File");
@@ -28,7 +28,9 @@ public class GameTrack {
 
     private Stage[] mStage;
     private int mStageIndex;
-    private long mStageElapsed;
+    /** End of each stage, in milliseconds since the track started. */
+    private long[] mStageEnd;
+    private long mElapsed;
     private OnStageChangedListener mListener;
     private boolean mStarted;
 
@@ -69,7 +71,13 @@ public class GameTrack {
         }
 
         mStage = stages;
-        mStageElapsed = 0;
+        mStageEnd = new long[stages.length];
+        long end = 0;
+        for (int i = 0; i < stages.length; i++) {
+            end += stages[i].lengthMillis;
+            mStageEnd[i] = end;
+        }
+        mElapsed = 0;
         mStageIndex = 0;
         mStarted = false;
 
@@ -83,26 +91,70 @@ public class GameTrack {
         return mStage[mStageIndex];
     }
 
+    /**
+     * @return milliseconds left in the current stage, 0 once the track is over.
+     */
+    public long getRemainingMillis() {
+        if (mStageIndex >= mStage.length) {
+            return 0;
+        }
+        return Math.max(0, mStageEnd[mStageIndex] - mElapsed);
+    }
+
     /**
      *
      * @param delta
      * @return true if the track is still going.
      */
     public boolean tick(long delta) {
+        return advanceTo(mElapsed + delta);
+    }
+
+    /**
+     * Moves the track to {@code elapsedMillis} since its start. Every stage passed on the way
+     * is reported to the listener in order, so a late call catches up exactly.
+     *
+     * @return true if the track is still going.
+     */
+    public boolean advanceTo(long elapsedMillis) {
         if (!mStarted) {
             mListener.onStageChanged(mStage[mStageIndex]);
             mStarted = true;
         }
-        mStageElapsed += delta;
-        Stage stage = mStage[mStageIndex];
-        if (mStageElapsed > stage.lengthMillis) {
-            mStageElapsed -= stage.lengthMillis;
-            return nextStage();
+        if (elapsedMillis > mElapsed) {
+            mElapsed = elapsedMillis;
         }
-        return true;
+        int target = Math.max(mStageIndex, findStage(mElapsed));
+        while (mStageIndex < target) {
+            if (!nextStage()) {
+                return false;
+            }
+        }
+        return mStageIndex < mStage.length;
+    }
+
+    /**
+     * @return the index of the stage active at {@code elapsedMillis}; a stage lasts while the
+     * elapsed time is not past its end. Returns the stage count once the track is over.
+     */
+    private int findStage(long elapsedMillis) {
+        int low = 0;
+        int high = mStageEnd.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mStageEnd[mid] < elapsedMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     public boolean nextStage() {
+        if (mStageIndex < mStage.length && mElapsed < mStageEnd[mStageIndex]) {
+            mElapsed = mStageEnd[mStageIndex];
+        }
         mStageIndex++;
 
         if (mStageIndex >= mStage.length) {
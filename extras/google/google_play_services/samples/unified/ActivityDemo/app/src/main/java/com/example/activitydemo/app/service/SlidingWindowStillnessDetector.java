@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.text.format.DateUtils;
+
+/**
+ * Detects stillness from the variance of the squared acceleration magnitude over a sliding
+ * window of samples. Mean and variance are kept as running sums, so each sample costs O(1) and
+ * no square root. Separate enter and exit thresholds keep the state from flapping.
+ */
+public class SlidingWindowStillnessDetector implements StillnessDetector {
+
+    public static final int DEFAULT_WINDOW_SIZE = 64;
+    /** Variance of |a|^2 below which we become still, roughly 0.25 m/s^2 of jitter. */
+    public static final double DEFAULT_ENTER_VARIANCE = 25;
+    /** Variance of |a|^2 above which we stop being still, roughly 0.5 m/s^2 of jitter. */
+    public static final double DEFAULT_EXIT_VARIANCE = 100;
+    public static final long DEFAULT_REPORT_INTERVAL = 2 * DateUtils.SECOND_IN_MILLIS;
+
+    private final float[] mWindow;
+    private final double mEnterVariance;
+    private final double mExitVariance;
+    private final long mReportInterval;
+
+    private int mHead;
+    private int mCount;
+    private double mSum;
+    private double mSumSquares;
+
+    private boolean mStill;
+    private long mLastReport;
+
+    public SlidingWindowStillnessDetector() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_ENTER_VARIANCE, DEFAULT_EXIT_VARIANCE,
+                DEFAULT_REPORT_INTERVAL);
+    }
+
+    public SlidingWindowStillnessDetector(int windowSize, double enterVariance,
+            double exitVariance, long reportIntervalMillis) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Window needs at least two samples");
+        }
+        if (enterVariance > exitVariance) {
+            throw new IllegalArgumentException("Enter threshold must not exceed exit threshold");
+        }
+        mWindow = new float[windowSize];
+        mEnterVariance = enterVariance;
+        mExitVariance = exitVariance;
+        mReportInterval = reportIntervalMillis;
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        mHead = 0;
+        mCount = 0;
+        mSum = 0;
+        mSumSquares = 0;
+        mStill = false;
+        mLastReport = -1;
+    }
+
+    public boolean isStill() {
+        return mStill;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    public double getVariance() {
+        if (mCount == 0) {
+            return 0;
+        }
+        double mean = mSum / mCount;
+        return Math.max(0, mSumSquares / mCount - mean * mean);
+    }
+
+    @Override
+    public boolean onSample(long timeMillis, float x, float y, float z) {
+        float value = x * x + y * y + z * z;
+        if (mCount == mWindow.length) {
+            float old = mWindow[mHead];
+            mSum -= old;
+            mSumSquares -= (double) old * old;
+        } else {
+            mCount++;
+        }
+        mWindow[mHead] = value;
+        mSum += value;
+        mSumSquares += (double) value * value;
+        mHead++;
+        if (mHead == mWindow.length) {
+            mHead = 0;
+            resum();
+        }
+
+        if (mCount < mWindow.length) {
+            return false;
+        }
+
+        double variance = getVariance();
+        if (mStill) {
+            if (variance > mExitVariance) {
+                mStill = false;
+                mLastReport = -1;
+                return false;
+            }
+        } else {
+            if (variance < mEnterVariance) {
+                mStill = true;
+                mLastReport = timeMillis;
+            }
+            return false;
+        }
+
+        if (timeMillis - mLastReport >= mReportInterval) {
+            mLastReport = timeMillis;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Recomputes the running sums once per pass over the window so rounding error from the
+     * add/subtract updates cannot accumulate.
+     */
+    private void resum() {
+        double sum = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < mCount; i++) {
+            float value = mWindow[i];
+            sum += value;
+            sumSquares += (double) value * value;
+        }
+        mSum = sum;
+        mSumSquares = sumSquares;
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+/**
+ * Decides from raw accelerometer samples whether the device is being held still.
+ * Implementations are called once per sensor event and should not allocate.
+ */
+public interface StillnessDetector {
+    /**
+     * @param timeMillis sample time, monotonic.
+     * @return true if a still period should be reported for this sample.
+     */
+    public boolean onSample(long timeMillis, float x, float y, float z);
+    public void reset();
+}
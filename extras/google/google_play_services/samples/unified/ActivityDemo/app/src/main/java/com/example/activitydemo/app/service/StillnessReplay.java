@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Feeds accelerometer traces through a {@link SlidingWindowStillnessDetector} as fast as the CPU
+ * allows, and reports the still/moving transitions it makes and what each sample costs.
+ *
+ * Traces are either recorded, one {@code time,x,y,z} sample per line, or synthetic: alternating
+ * segments of walking and of lying still. When a trace says whether the device really was still,
+ * the transitions are checked against it and the detection latency is measured.
+ */
+public class StillnessReplay {
+    private static final String TAG = "StillnessReplay";
+
+    /** Roughly the rate of {@code SENSOR_DELAY_GAME}. */
+    public static final long SAMPLE_INTERVAL = 20;
+    public static final long DEFAULT_SEGMENT_LENGTH = 30 * 1000;
+    public static final int DEFAULT_SEGMENTS = 40;
+
+    private static final float GRAVITY = 9.81f;
+    /** Sensor noise while lying still, in m/s^2. */
+    private static final double STILL_NOISE = 0.05;
+    private static final double WALK_NOISE = 0.5;
+    private static final double STEP_FREQUENCY = 1.8;
+    private static final double STEP_AMPLITUDE = 2.5;
+
+    private StillnessReplay() {
+    }
+
+    public static final class Trace {
+        public final long[] times;
+        public final float[] x;
+        public final float[] y;
+        public final float[] z;
+        /** Whether the device really was still at each sample, or null if not known. */
+        public final boolean[] still;
+
+        public Trace(long[] times, float[] x, float[] y, float[] z, boolean[] still) {
+            if (x.length != times.length || y.length != times.length || z.length != times.length
+                    || (still != null && still.length != times.length)) {
+                throw new IllegalArgumentException("Columns must have the same length");
+            }
+            this.times = times;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.still = still;
+        }
+
+        public int size() {
+            return times.length;
+        }
+
+        /**
+         * Reads a recorded trace: one sample per line as {@code time,x,y,z}, with the time in
+         * milliseconds, optionally followed by {@code ,1} or {@code ,0} for whether the device
+         * was still. Blank lines and lines starting with {@code #} are skipped.
+         */
+        public static Trace parse(Reader reader) throws IOException {
+            BufferedReader in = new BufferedReader(reader);
+            List<String[]> rows = new ArrayList<String[]>();
+            boolean labelled = true;
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length < 4) {
+                    throw new IOException("Expected time,x,y,z but got: " + line);
+                }
+                labelled &= fields.length > 4;
+                rows.add(fields);
+            }
+
+            int n = rows.size();
+            long[] times = new long[n];
+            float[] x = new float[n];
+            float[] y = new float[n];
+            float[] z = new float[n];
+            boolean[] still = labelled ? new boolean[n] : null;
+            try {
+                for (int i = 0; i < n; i++) {
+                    String[] fields = rows.get(i);
+                    times[i] = Long.parseLong(fields[0].trim());
+                    x[i] = Float.parseFloat(fields[1].trim());
+                    y[i] = Float.parseFloat(fields[2].trim());
+                    z[i] = Float.parseFloat(fields[3].trim());
+                    if (still != null) {
+                        still[i] = "1".equals(fields[4].trim());
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed sample: " + e.getMessage());
+            }
+            return new Trace(times, x, y, z, still);
+        }
+
+        /**
+         * Makes a labelled trace of alternating walking and still segments, starting with
+         * walking, sampled every {@link #SAMPLE_INTERVAL}.
+         *
+         * @param seed seed for the noise, so runs can be compared.
+         * @param segments number of segments.
+         * @param segmentMillis length of each segment.
+         */
+        public static Trace synthetic(long seed, int segments, long segmentMillis) {
+            Random random = new Random(seed);
+            int perSegment = (int) (segmentMillis / SAMPLE_INTERVAL);
+            int n = segments * perSegment;
+            long[] times = new long[n];
+            float[] x = new float[n];
+            float[] y = new float[n];
+            float[] z = new float[n];
+            boolean[] still = new boolean[n];
+            // Lies at a different angle each time it is put down.
+            double tilt = 0;
+            for (int i = 0; i < n; i++) {
+                int segment = i / perSegment;
+                long time = i * SAMPLE_INTERVAL;
+                boolean isStill = (segment & 1) != 0;
+                if (isStill && i % perSegment == 0) {
+                    tilt = random.nextDouble() * Math.PI / 2;
+                }
+                times[i] = time;
+                still[i] = isStill;
+                if (isStill) {
+                    x[i] = (float) (GRAVITY * Math.sin(tilt) + random.nextGaussian() * STILL_NOISE);
+                    y[i] = (float) (random.nextGaussian() * STILL_NOISE);
+                    z[i] = (float) (GRAVITY * Math.cos(tilt) + random.nextGaussian() * STILL_NOISE);
+                } else {
+                    double phase = 2 * Math.PI * STEP_FREQUENCY * time / 1000;
+                    x[i] = (float) (0.5 * STEP_AMPLITUDE * Math.sin(phase / 2)
+                            + random.nextGaussian() * WALK_NOISE);
+                    y[i] = (float) (random.nextGaussian() * WALK_NOISE);
+                    z[i] = (float) (GRAVITY + STEP_AMPLITUDE * Math.sin(phase)
+                            + random.nextGaussian() * WALK_NOISE);
+                }
+            }
+            return new Trace(times, x, y, z, still);
+        }
+    }
+
+    public static final class Result {
+        public final int samples;
+        public final int reports;
+        public final int transitions;
+        /** Transitions to a state the trace's labels disagree with; 0 for unlabelled traces. */
+        public final int wrongTransitions;
+        /** Label changes the detector followed, and how long it took on average. */
+        public final int detected;
+        public final int expected;
+        public final long meanLatencyMillis;
+        public final long elapsedNanos;
+
+        Result(int samples, int reports, int transitions, int wrongTransitions, int detected,
+                int expected, long meanLatencyMillis, long elapsedNanos) {
+            this.samples = samples;
+            this.reports = reports;
+            this.transitions = transitions;
+            this.wrongTransitions = wrongTransitions;
+            this.detected = detected;
+            this.expected = expected;
+            this.meanLatencyMillis = meanLatencyMillis;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getNanosPerSample() {
+            return samples == 0 ? 0 : (double) elapsedNanos / samples;
+        }
+
+        @Override
+        public String toString() {
+            return "samples=" + samples + " reports=" + reports + " transitions=" + transitions
+                    + " wrong=" + wrongTransitions + " detected=" + detected + "/" + expected
+                    + " latency=" + meanLatencyMillis + "ms cost="
+                    + Math.round(getNanosPerSample()) + "ns/sample";
+        }
+    }
+
+    /**
+     * Resets the detector and plays the whole trace through it. The cost is measured over the
+     * {@link StillnessDetector#onSample} calls alone.
+     */
+    public static Result run(SlidingWindowStillnessDetector detector, Trace trace) {
+        detector.reset();
+        int n = trace.size();
+        boolean[] states = new boolean[n];
+        int reports = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            if (detector.onSample(trace.times[i], trace.x[i], trace.y[i], trace.z[i])) {
+                reports++;
+            }
+            states[i] = detector.isStill();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        // Compared afterwards so the bookkeeping doesn't count towards the cost.
+        int transitions = 0;
+        int wrong = 0;
+        int detected = 0;
+        int expected = 0;
+        long latencyTotal = 0;
+        long labelChange = -1;
+        boolean previous = false;
+        for (int i = 0; i < n; i++) {
+            if (trace.still != null && i > 0 && trace.still[i] != trace.still[i - 1]) {
+                expected++;
+                labelChange = trace.times[i];
+            }
+            if (states[i] != previous) {
+                transitions++;
+                previous = states[i];
+                if (trace.still != null) {
+                    if (states[i] != trace.still[i]) {
+                        wrong++;
+                    } else if (labelChange >= 0) {
+                        detected++;
+                        latencyTotal += trace.times[i] - labelChange;
+                        labelChange = -1;
+                    }
+                }
+            }
+        }
+        return new Result(n, reports, transitions, wrong, detected, expected,
+                detected == 0 ? 0 : latencyTotal / detected, elapsed);
+    }
+
+    /**
+     * Replays a synthetic trace through a detector with the default settings and logs the
+     * result.
+     */
+    public static String run(long seed) {
+        Trace trace = Trace.synthetic(seed, DEFAULT_SEGMENTS, DEFAULT_SEGMENT_LENGTH);
+        SlidingWindowStillnessDetector detector = new SlidingWindowStillnessDetector();
+        // The first pass warms up the JIT.
+        run(detector, trace);
+        String result = run(detector, trace).toString();
+        Log.d(TAG, result);
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.activitydemo.app.service;
+
+import android.util.Log;
+
+import com.example.activitydemo.app.ActivityLog;
+import com.example.activitydemo.app.GameConfig;
+import com.google.android.gms.location.DetectedActivity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares how often {@link GameService.GameHandler} wakes up during a game under the old fixed
+ * 50 ms poll and under stage boundary scheduling, with and without a client bound, by replaying
+ * the same game through {@link GameReplay} with each tick cap.
+ *
+ * Each tick is a wakeup of the handler thread, so ticks per minute stand in for the battery
+ * cost; the CPU time per tick is measured too. Recognition results wake the thread the same way
+ * in every mode and are left out of the counts.
+ */
+public class TickComparison {
+    private static final String TAG = "TickComparison";
+
+    /** The fixed tick the handler used to poll with. */
+    public static final long POLL_TICK_LENGTH = 50;
+    /** Roughly how often activity recognition delivers a result. */
+    private static final long EVENT_INTERVAL = 3000;
+    private static final int[] EVENT_TYPES = {
+            DetectedActivity.STILL, DetectedActivity.WALKING, DetectedActivity.RUNNING
+    };
+
+    private static final String[] MODES = { "poll 50ms", "boundary+client", "boundary" };
+    private static final long[] MAX_TICK_LENGTHS = {
+            POLL_TICK_LENGTH, GameService.GameHandler.UI_TICK_LENGTH, Long.MAX_VALUE
+    };
+
+    private TickComparison() {
+    }
+
+    /**
+     * Replays one game of the basic track in every mode.
+     *
+     * @param runs replays per mode; the CPU time per tick is averaged over all of them.
+     * @return one line per mode with its ticks, wakeups per minute and CPU time per tick.
+     */
+    public static String run(int runs) {
+        GameConfig config = new GameConfig.Builder().build();
+        List<ActivityLog> events = buildEvents(GameTrack.BASIC_TRACK);
+        GameReplay replay = new GameReplay(new GameReplay.SilentHost());
+
+        StringBuilder result = new StringBuilder();
+        for (int mode = 0; mode < MODES.length; mode++) {
+            long ticks = 0;
+            long virtualMillis = 0;
+            long elapsedNanos = 0;
+            for (int run = 0; run < runs; run++) {
+                GameReplay.Result r = replay.run(config, GameTrack.BASIC_TRACK, events, 0,
+                        MAX_TICK_LENGTHS[mode]);
+                ticks = r.ticks;
+                virtualMillis = r.virtualMillis;
+                elapsedNanos += r.elapsedNanos;
+            }
+            String line = MODES[mode] + ": " + ticks + " ticks in " + (virtualMillis / 1000)
+                    + "s, " + (virtualMillis == 0 ? 0 : ticks * 60000 / virtualMillis)
+                    + " wakeups/min, " + (elapsedNanos / Math.max(1, ticks * runs)) + "ns/tick";
+            Log.d(TAG, line);
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * One recognition result every {@link #EVENT_INTERVAL} over the length of the track.
+     */
+    private static List<ActivityLog> buildEvents(GameTrack.Stage[] track) {
+        long length = 0;
+        for (GameTrack.Stage stage : track) {
+            length += stage.lengthMillis;
+        }
+        List<ActivityLog> events = new ArrayList<ActivityLog>();
+        for (long time = EVENT_INTERVAL; time < length; time += EVENT_INTERVAL) {
+            int type = EVENT_TYPES[events.size() % EVENT_TYPES.length];
+            events.add(new ActivityLog(type, 80, time));
+        }
+        return events;
+    }
+}